@@ -0,0 +1,160 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+/**
+ * Decodes binary xml into xml text.
+ * Each decoder keeps its own parser, input buffer and options, and
+ * instances share no mutable state, so one decoder per thread scales
+ * without locking. A single instance is not thread-safe.
+ * Internal arrays are reused from one document to the next.
+ */
+public class AxmlDecoder {
+
+	public AxmlDecoder() {
+	}
+
+	/**
+	 * Sets the text of the comment written after the xml declaration.
+	 */
+	public AxmlDecoder setComment(String comment) {
+		m_comment = comment;
+		return this;
+	}
+
+	public String getComment() {
+		return m_comment;
+	}
+
+	/**
+	 * See AXmlResourceParser.setLazyAttributes(boolean).
+	 */
+	public AxmlDecoder setLazyAttributes(boolean lazy) {
+		m_parser.setLazyAttributes(lazy);
+		return this;
+	}
+
+	/**
+	 * See StringBlock.setCacheLimit(int).
+	 */
+	public AxmlDecoder setStringCacheLimit(int limit) {
+		m_parser.setStringCacheLimit(limit);
+		return this;
+	}
+
+	/**
+	 * Looks documents up in cache before parsing them, and stores what
+	 * was decoded. The cache may be shared with other decoders.
+	 */
+	public AxmlDecoder setCache(DecodeCache cache) {
+		m_cache = cache;
+		return this;
+	}
+
+	public DecodeCache getCache() {
+		return m_cache;
+	}
+
+	public void decode(ByteBuffer input, Appendable output) throws XmlPullParserException, IOException {
+		if (m_cache != null) {
+			output.append(decode(input));
+			return;
+		}
+		m_parser.reset(input);
+		new XmlWriter(output).write(m_parser, m_comment);
+	}
+
+	public void decode(InputStream input, Appendable output) throws XmlPullParserException, IOException {
+		decode(readFully(input), output);
+	}
+
+	public String decode(ByteBuffer input) throws XmlPullParserException, IOException {
+		String key=null;
+		if (m_cache != null) {
+			key = m_cache.key(m_comment, input);
+			String text=m_cache.get(key);
+			if (text != null) {
+				return text;
+			}
+		}
+		m_text.setLength(0);
+		m_parser.reset(input);
+		new XmlWriter(m_text).write(m_parser, m_comment);
+		String text=m_text.toString();
+		if (key != null) {
+			m_cache.put(key, text);
+		}
+		return text;
+	}
+
+	public String decode(InputStream input) throws XmlPullParserException, IOException {
+		return decode(readFully(input));
+	}
+
+	/**
+	 * Memory-maps input and writes the decoded xml to output as UTF-8.
+	 */
+	public void decode(Path input, Path output) throws XmlPullParserException, IOException {
+		ByteBuffer buffer=AXmlResourceParser.map(input);
+		Writer writer=Files.newBufferedWriter(output, Charset.forName("UTF-8"));
+		try {
+			decode(buffer, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes input as JSON to output, encoded as UTF-8.
+	 * See JsonWriter for the layout. Output is flushed but left open.
+	 */
+	public void decodeJson(ByteBuffer input, OutputStream output) throws XmlPullParserException, IOException {
+		Writer writer=new BufferedWriter(new OutputStreamWriter(output, Charset.forName("UTF-8")));
+		m_parser.reset(input);
+		new JsonWriter(writer).write(m_parser);
+		writer.flush();
+	}
+
+	public void decodeJson(InputStream input, OutputStream output) throws XmlPullParserException, IOException {
+		decodeJson(readFully(input), output);
+	}
+
+	public void decodeJson(Path input, Path output) throws XmlPullParserException, IOException {
+		ByteBuffer buffer=AXmlResourceParser.map(input);
+		OutputStream stream=Files.newOutputStream(output);
+		try {
+			decodeJson(buffer, stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private ByteBuffer readFully(InputStream input) throws IOException {
+		int length=0;
+		while (true) {
+			if (length == m_input.length) {
+				byte[] grown=new byte[m_input.length * 2];
+				System.arraycopy(m_input, 0, grown, 0, length);
+				m_input = grown;
+			}
+			int read=input.read(m_input, length, m_input.length - length);
+			if (read == -1) {
+				break;
+			}
+			length += read;
+		}
+		return ByteBuffer.wrap(m_input, 0, length);
+	}
+
+	private final AXmlResourceParser m_parser=new AXmlResourceParser();
+	private final StringBuilder m_text=new StringBuilder();
+	private byte[] m_input=new byte[8192];
+	private String m_comment="Decompiled with AxmlXml 1.0";
+	private DecodeCache m_cache;
+}
@@ -0,0 +1,364 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Read-only tree of a binary xml document.
+ * Nodes are ints numbered in document order, the root element is 0.
+ * Everything lives in a few parallel int arrays holding string pool
+ * indices, value types and data, and strings are decoded from the shared
+ * string pool only when asked for, so a document takes about as much
+ * memory as its binary form. Parent, children and attributes of a node
+ * are all reached in constant time.
+ * A document is not thread-safe, as decoded strings are cached.
+ */
+public class AxmlDocument {
+
+	public static AxmlDocument read(ByteBuffer input) throws XmlPullParserException, IOException {
+		AXmlResourceParser parser=new AXmlResourceParser();
+		parser.open(input);
+		return new AxmlDocument(parser);
+	}
+
+	public static AxmlDocument read(InputStream input) throws XmlPullParserException, IOException {
+		AXmlResourceParser parser=new AXmlResourceParser();
+		parser.open(input);
+		return new AxmlDocument(parser);
+	}
+
+	public static AxmlDocument read(Path input) throws XmlPullParserException, IOException {
+		return read(AXmlResourceParser.map(input));
+	}
+
+	/**
+	 * Returns number of strings in the string pool, which the *Index
+	 * getters return positions in.
+	 */
+	public int getStringCount() {
+		return (m_strings == null) ?0: m_strings.getCount();
+	}
+
+	/**
+	 * Returns the string at index of the string pool, or null for -1 and
+	 * other indices outside of it.
+	 */
+	public String getString(int index) {
+		return (m_strings == null) ?null: m_strings.getString(index);
+	}
+
+	public int getNodeCount() {
+		return m_nodeCount;
+	}
+
+	/**
+	 * Returns the root element, or -1 for an empty document.
+	 */
+	public int getRoot() {
+		return (m_nodeCount == 0) ?-1: 0;
+	}
+
+	public boolean isElement(int node) {
+		return m_kinds[node] == KIND_ELEMENT;
+	}
+
+	public boolean isText(int node) {
+		return m_kinds[node] == KIND_TEXT;
+	}
+
+	/**
+	 * Returns the parent element, or -1 for the root.
+	 */
+	public int getParent(int node) {
+		return m_parents[node];
+	}
+
+	public int getChildCount(int node) {
+		return m_childStarts[node + 1] - m_childStarts[node];
+	}
+
+	public int getChild(int node, int index) {
+		return m_children[m_childStarts[node] + index];
+	}
+
+	public int getDepth(int node) {
+		int depth=0;
+		for (int n=node;n != -1;n = m_parents[n]) {
+			depth += 1;
+		}
+		return depth;
+	}
+
+	/////////////////////////////////// names and text
+
+	/**
+	 * Returns string pool index of the element name, or of the text for
+	 * text nodes.
+	 */
+	public int getNameIndex(int node) {
+		return m_names[node];
+	}
+
+	public int getNamespaceIndex(int node) {
+		return m_namespaceUris[node];
+	}
+
+	public String getName(int node) {
+		return isElement(node) ?m_strings.getString(m_names[node]): null;
+	}
+
+	public String getText(int node) {
+		return isText(node) ?m_strings.getString(m_names[node]): null;
+	}
+
+	public String getNamespace(int node) {
+		return m_strings.getString(m_namespaceUris[node]);
+	}
+
+	/**
+	 * Returns number of namespaces declared on the element.
+	 */
+	public int getNamespaceCount(int node) {
+		return m_namespaceStarts[node + 1] - m_namespaceStarts[node];
+	}
+
+	public int getNamespacePrefixIndex(int node, int index) {
+		return m_namespaceDeclarations[(m_namespaceStarts[node] + index) * 2];
+	}
+
+	public int getNamespaceUriIndex(int node, int index) {
+		return m_namespaceDeclarations[(m_namespaceStarts[node] + index) * 2 + 1];
+	}
+
+	/////////////////////////////////// attributes
+
+	public int getAttributeCount(int node) {
+		return m_attributeStarts[node + 1] - m_attributeStarts[node];
+	}
+
+	public int getAttributeNamespaceIndex(int node, int index) {
+		return getAttribute(node, index, ATTRIBUTE_IX_NAMESPACE_URI);
+	}
+
+	public int getAttributeNameIndex(int node, int index) {
+		return getAttribute(node, index, ATTRIBUTE_IX_NAME);
+	}
+
+	/**
+	 * Returns index of the raw string value, set for TYPE_STRING values
+	 * and -1 for most others.
+	 */
+	public int getAttributeValueStringIndex(int node, int index) {
+		return getAttribute(node, index, ATTRIBUTE_IX_VALUE_STRING);
+	}
+
+	public int getAttributeValueType(int node, int index) {
+		return getAttribute(node, index, ATTRIBUTE_IX_VALUE_TYPE);
+	}
+
+	public int getAttributeValueData(int node, int index) {
+		return getAttribute(node, index, ATTRIBUTE_IX_VALUE_DATA);
+	}
+
+	public String getAttributeName(int node, int index) {
+		return m_strings.getString(getAttributeNameIndex(node, index));
+	}
+
+	/**
+	 * Returns the value as decoded xml shows it.
+	 */
+	public String getAttributeValue(int node, int index) {
+		int type=getAttributeValueType(node, index);
+		if (type == TypedValue.TYPE_STRING) {
+			return m_strings.getString(getAttributeValueStringIndex(node, index));
+		}
+		if (m_renderer == null) {
+			m_renderer = new ValueRenderer();
+		}
+		int length=m_renderer.render(type, getAttributeValueData(node, index));
+		return new String(m_renderer.getChars(), 0, length);
+	}
+
+	/**
+	 * Returns position of the attribute with given name in any namespace,
+	 * or -1.
+	 */
+	public int findAttribute(int node, String name) {
+		for (int i=0, e=getAttributeCount(node);i != e;++i) {
+			if (name.equals(getAttributeName(node, i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private AxmlDocument(AXmlResourceParser parser) throws XmlPullParserException, IOException {
+		int[] parents=new int[INITIAL_NODES];
+		int[] path=new int[16];
+		int depth=0;
+		while (true) {
+			int type=parser.next();
+			if (type == XmlPullParser.END_DOCUMENT) {
+				break;
+			}
+			if (type == XmlPullParser.END_TAG) {
+				depth -= 1;
+				continue;
+			}
+			if (type != XmlPullParser.START_TAG && type != XmlPullParser.TEXT) {
+				continue;
+			}
+			int node=m_nodeCount;
+			if (node == m_names.length) {
+				grow(node * 2);
+				parents = Arrays.copyOf(parents, node * 2);
+			}
+			m_nodeCount += 1;
+			parents[node] = (depth == 0) ?-1: path[depth - 1];
+			m_attributeStarts[node] = m_attributeCount;
+			m_namespaceStarts[node] = m_namespaceCount;
+			if (type == XmlPullParser.TEXT) {
+				m_kinds[node] = KIND_TEXT;
+				m_names[node] = parser.getTextIndex();
+				m_namespaceUris[node] = -1;
+				continue;
+			}
+			m_kinds[node] = KIND_ELEMENT;
+			m_names[node] = parser.getNameIndex();
+			m_namespaceUris[node] = parser.getNamespaceIndex();
+			readNamespaces(parser);
+			readAttributes(parser);
+			if (depth == path.length) {
+				path = Arrays.copyOf(path, depth * 2);
+			}
+			path[depth++] = node;
+		}
+		m_strings = parser.getStringPool();
+		if (m_strings != null) {
+			m_strings.detach();
+		}
+		parser.close();
+
+		int count=m_nodeCount;
+		m_kinds = Arrays.copyOf(m_kinds, count);
+		m_names = Arrays.copyOf(m_names, count);
+		m_namespaceUris = Arrays.copyOf(m_namespaceUris, count);
+		m_parents = Arrays.copyOf(parents, count);
+		m_attributeStarts = Arrays.copyOf(m_attributeStarts, count + 1);
+		m_attributeStarts[count] = m_attributeCount;
+		m_attributes = Arrays.copyOf(m_attributes, m_attributeCount * ATTRIBUTE_LENGTH);
+		m_namespaceStarts = Arrays.copyOf(m_namespaceStarts, count + 1);
+		m_namespaceStarts[count] = m_namespaceCount;
+		m_namespaceDeclarations = Arrays.copyOf(m_namespaceDeclarations, m_namespaceCount * 2);
+		linkChildren();
+	}
+
+	private void readNamespaces(AXmlResourceParser parser) throws XmlPullParserException {
+		int depth=parser.getDepth();
+		int from=parser.getNamespaceCount(depth - 1);
+		int to=parser.getNamespaceCount(depth);
+		int length=(m_namespaceCount + to - from) * 2;
+		if (length > m_namespaceDeclarations.length) {
+			m_namespaceDeclarations = Arrays.copyOf(m_namespaceDeclarations, Math.max(length, m_namespaceDeclarations.length * 2));
+		}
+		for (int i=from;i != to;++i) {
+			m_namespaceDeclarations[m_namespaceCount * 2] = parser.getNamespacePrefixIndex(i);
+			m_namespaceDeclarations[m_namespaceCount * 2 + 1] = parser.getNamespaceUriIndex(i);
+			m_namespaceCount += 1;
+		}
+	}
+
+	private void readAttributes(AXmlResourceParser parser) {
+		int count=parser.getAttributeCount();
+		int length=(m_attributeCount + count) * ATTRIBUTE_LENGTH;
+		if (length > m_attributes.length) {
+			m_attributes = Arrays.copyOf(m_attributes, Math.max(length, m_attributes.length * 2));
+		}
+		for (int i=0;i != count;++i) {
+			int o=m_attributeCount * ATTRIBUTE_LENGTH;
+			m_attributes[o + ATTRIBUTE_IX_NAMESPACE_URI] = parser.getAttributeNamespaceIndex(i);
+			m_attributes[o + ATTRIBUTE_IX_NAME] = parser.getAttributeNameIndex(i);
+			m_attributes[o + ATTRIBUTE_IX_VALUE_STRING] = parser.getAttributeValueStringIndex(i);
+			m_attributes[o + ATTRIBUTE_IX_VALUE_TYPE] = parser.getAttributeRawType(i);
+			m_attributes[o + ATTRIBUTE_IX_VALUE_DATA] = parser.getAttributeRawData(i);
+			m_attributeCount += 1;
+		}
+	}
+
+	/**
+	 * Lays children out grouped by parent, nodes are numbered in document
+	 * order so each group comes out in document order too.
+	 */
+	private void linkChildren() {
+		int count=m_nodeCount;
+		m_childStarts = new int[count + 1];
+		for (int node=0;node != count;++node) {
+			int parent=m_parents[node];
+			if (parent != -1) {
+				m_childStarts[parent + 1] += 1;
+			}
+		}
+		for (int node=0;node != count;++node) {
+			m_childStarts[node + 1] += m_childStarts[node];
+		}
+		m_children = new int[m_childStarts[count]];
+		int[] filled=new int[count];
+		for (int node=0;node != count;++node) {
+			int parent=m_parents[node];
+			if (parent != -1) {
+				m_children[m_childStarts[parent] + filled[parent]++] = node;
+			}
+		}
+	}
+
+	private void grow(int capacity) {
+		m_kinds = Arrays.copyOf(m_kinds, capacity);
+		m_names = Arrays.copyOf(m_names, capacity);
+		m_namespaceUris = Arrays.copyOf(m_namespaceUris, capacity);
+		m_attributeStarts = Arrays.copyOf(m_attributeStarts, capacity);
+		m_namespaceStarts = Arrays.copyOf(m_namespaceStarts, capacity);
+	}
+
+	private int getAttribute(int node, int index, int field) {
+		return m_attributes[(m_attributeStarts[node] + index) * ATTRIBUTE_LENGTH + field];
+	}
+
+	private StringBlock m_strings;
+	private int m_nodeCount;
+	private byte[] m_kinds=new byte[INITIAL_NODES];
+	private int[] m_names=new int[INITIAL_NODES];
+	private int[] m_namespaceUris=new int[INITIAL_NODES];
+	private int[] m_parents;
+	private int[] m_childStarts;
+	private int[] m_children;
+	/*
+	 * Per node start into the attribute and namespace arrays, the extra
+	 * last entry holds the totals so counts are differences of starts.
+	 */
+	private int[] m_attributeStarts=new int[INITIAL_NODES];
+	private int[] m_attributes=new int[INITIAL_NODES * ATTRIBUTE_LENGTH];
+	private int m_attributeCount;
+	private int[] m_namespaceStarts=new int[INITIAL_NODES];
+	private int[] m_namespaceDeclarations=new int[4];
+	private int m_namespaceCount;
+	private ValueRenderer m_renderer;
+
+	private static final byte
+	KIND_ELEMENT = 0,
+	KIND_TEXT = 1;
+
+	private static final int INITIAL_NODES = 32;
+
+	private static final int
+	ATTRIBUTE_IX_NAMESPACE_URI = 0,
+	ATTRIBUTE_IX_NAME = 1,
+	ATTRIBUTE_IX_VALUE_STRING = 2,
+	ATTRIBUTE_IX_VALUE_TYPE = 3,
+	ATTRIBUTE_IX_VALUE_DATA = 4,
+	ATTRIBUTE_LENGTH = 5;
+}
@@ -2,6 +2,10 @@ package axml.xml;
 
 import org.xmlpull.v1.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.*;
 import java.lang.reflect.*;
 import java.util.regex.*;
@@ -9,18 +13,42 @@ import java.util.regex.*;
 public class AxmlUtil {
 	public static class Config {
         public static StringPoolChunk.Encoding encoding= StringPoolChunk.Encoding.UNICODE;
+        public static StringPoolChunk.Order stringOrder= StringPoolChunk.Order.FIRST_SEEN;
         public static int defaultReferenceRadix=16;
+        // Decoded strings cached per string pool, -1 for no limit, 0 to disable.
+        public static int stringCacheLimit=-1;
     }
 
+    /**
+     * Streams the encoded file to output, see AxmlEncoder.
+     */
     public static void encodeFile(String input, String output) throws XmlPullParserException, IOException {
-		XmlPullParserFactory f = XmlPullParserFactory.newInstance();
-		f.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-		XmlPullParser p = f.newPullParser();
-		p.setInput(new FileInputStream(input), "UTF-8");
-		new FileOutputStream(output).write(encode(p));
+		new AxmlEncoder().encode(Paths.get(input), Paths.get(output));
     }
 
     public static byte[] encode(XmlPullParser p) throws XmlPullParserException, IOException {
+		XmlChunk chunk=build(p);
+		byte[] output=new byte[chunk.calc()];
+		chunk.write(new IntWriter(ByteBuffer.wrap(output).order(ByteOrder.LITTLE_ENDIAN)));
+		return output;
+    }
+
+	/**
+	 * Encodes into output from its position on, and moves the position
+	 * past the document. Throws BufferOverflowException, without writing
+	 * anything, if output has too little room left.
+	 */
+    public static void encode(XmlPullParser p, ByteBuffer output) throws XmlPullParserException, IOException {
+		XmlChunk chunk=build(p);
+		if (output.remaining() < chunk.calc()) {
+			throw new BufferOverflowException();
+		}
+		ByteBuffer view=output.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		chunk.write(new IntWriter(view));
+		output.position(view.position());
+    }
+
+	private static XmlChunk build(XmlPullParser p) throws XmlPullParserException, IOException {
 		XmlChunk chunk = new XmlChunk();
 		TagChunk current = null;
 		for (int i=p.getEventType();i != XmlPullParser.END_DOCUMENT;i = p.next()) {
@@ -41,160 +69,71 @@ public class AxmlUtil {
 
 			}
 		}
-		ByteArrayOutputStream os=new ByteArrayOutputStream();
-		IntWriter w=new IntWriter(os);
-		chunk.write(w);
-		w.close();
-		return os.toByteArray();
-    }
-
-	public static PrintStream out;
+		return chunk;
+	}
 
 	public static void decode(String inf, String output) throws XmlPullParserException, IOException {
-		out = new PrintStream(new File(output));
-		AXmlResourceParser parser=new AXmlResourceParser();
-		parser.open(new FileInputStream(inf));
-		StringBuilder indent = new StringBuilder(10);
-		final String indentStep = "   ";
-		while (true) {
-			int type = parser.next();
-			if (type == XmlPullParser.END_DOCUMENT) {
-				break;
-			}
-			switch (type) {
-				case XmlPullParser.START_DOCUMENT:
-					{
-						log("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
-						log("<!-- Decompiled with AxmlXml 1.0 -->");
-						break;
-					}
-				case XmlPullParser.START_TAG:
-					{
-						if (parser.getAttributeCount() <= 0) {
-							logs("%s<%s%s", indent,
-								 getNamespacePrefix(parser.getPrefix()), parser.getName());
-
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log("%sxmlns:%s=\"%s\"",
-									indent,
-									parser.getNamespacePrefix(i),
-									parser.getNamespaceUri(i));
-							}
-							log(">");
-						} else {
-							log("%s<%s%s", indent,
-								getNamespacePrefix(parser.getPrefix()), parser.getName());
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log("%sxmlns:%s=\"%s\"",
-									indent,
-									parser.getNamespacePrefix(i),
-									parser.getNamespaceUri(i));
-							}
-
-							for (int i=0;i != parser.getAttributeCount();++i) {
-								if (i == (parser.getAttributeCount() - 1)) {
-									logs("%s%s%s=\"%s\"", indent,
-										 getNamespacePrefix(parser.getAttributePrefix(i)),
-										 parser.getAttributeName(i),
-										 getAttributeValue(parser, i));
-								} else {
-									log("%s%s%s=\"%s\"", indent,
-										getNamespacePrefix(parser.getAttributePrefix(i)),
-										parser.getAttributeName(i),
-										getAttributeValue(parser, i));
-								}
-							}
-							log(" >");
-						}
-						break;
-					}
-				case XmlPullParser.END_TAG:
-					{
-						indent.setLength(indent.length() - indentStep.length());
-						log("%s</%s%s>", indent,
-							getNamespacePrefix(parser.getPrefix()),
-							parser.getName());
-						break;
-					}
-				case XmlPullParser.TEXT:
-					{
-						log("%s%s", indent, parser.getText());
-						break;
-					}
-			}
-		}
-		out.close();
+		new AxmlDecoder().decode(Paths.get(inf), Paths.get(output));
 	}
 
-	private static String getNamespacePrefix(String prefix) {
-		if (prefix == null || prefix.length() == 0) {
-			return "";
-		}
-		return prefix + ":";
+	public static void decodeJson(String inf, String output) throws XmlPullParserException, IOException {
+		new AxmlDecoder().decodeJson(Paths.get(inf), Paths.get(output));
 	}
 
-	private static String getAttributeValue(AXmlResourceParser parser, int index) {
-		int type=parser.getAttributeValueType(index);
-		int data=parser.getAttributeValueData(index);
-		if (type == TypedValue.TYPE_STRING) {
-			return parser.getAttributeValue(index);
-		}
-		if (type == TypedValue.TYPE_ATTRIBUTE) {
-			return String.format("?%s%08X", getPackage(data), data);
-		}
-		if (type == TypedValue.TYPE_REFERENCE) {
-			return String.format("@%s%08X", getPackage(data), data);
-		}
-		if (type == TypedValue.TYPE_FLOAT) {
-			return String.valueOf(Float.intBitsToFloat(data));
-		}
-		if (type == TypedValue.TYPE_INT_HEX) {
-			return String.format("0x%08X", data);
-		}
-		if (type == TypedValue.TYPE_INT_BOOLEAN) {
-			return data != 0 ?"true": "false";
-		}
-		if (type == TypedValue.TYPE_DIMENSION) {
-			return Float.toString(complexToFloat(data)) +
-				DIMENSION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
-		}
-		if (type == TypedValue.TYPE_FRACTION) {
-			return Float.toString(complexToFloat(data)) +
-				FRACTION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
-		}
-		if (type >= TypedValue.TYPE_FIRST_COLOR_INT && type <= TypedValue.TYPE_LAST_COLOR_INT) {
-			return String.format("#%08X", data);
-		}
-		if (type >= TypedValue.TYPE_FIRST_INT && type <= TypedValue.TYPE_LAST_INT) {
-			return String.valueOf(data);
-		}
-		return String.format("<0x%X, type 0x%02X>", data, type);
+	/**
+	 * Decodes every input into a file of the same name in outDir, on
+	 * parallelism threads that each reuse one decoder.
+	 * A file that fails is reported and the others still get decoded,
+	 * returns the failures by input (empty if there were none).
+	 */
+	public static Map<Path,Throwable> decodeAll(Collection<Path> inputs, Path outDir, int parallelism) throws IOException {
+		Files.createDirectories(outDir);
+		final ThreadLocal<AxmlDecoder> decoders=new ThreadLocal<AxmlDecoder>() {
+			@Override
+			protected AxmlDecoder initialValue() {
+				return new AxmlDecoder();
+			}
+		};
+		return Batch.run(inputs, outDir, parallelism, new Batch.Job() {
+				public void run(Path input, Path output) throws Exception {
+					decoders.get().decode(input, output);
+				}
+			});
 	}
 
-	private static String getPackage(int id) {
-		if (id >>> 24 == 1) {
-			return "android:";
-		}
-		return "";
+	/**
+	 * Decodes AndroidManifest.xml and the res/ xml files of an APK into
+	 * outDir, see AxmlArchive.decodeAll.
+	 */
+	public static Map<String,Throwable> decodeApk(Path apk, Path outDir, int parallelism) throws IOException {
+		return new AxmlArchive(apk).decodeAll(outDir, parallelism);
 	}
 
-	private static void log(String format, Object...arguments) {
-		out.printf(format, arguments);
-		out.println();
+	/**
+	 * Encodes every input into outDir like decodeAll, each thread
+	 * reusing one encoder.
+	 */
+	public static Map<Path,Throwable> encodeAll(Collection<Path> inputs, Path outDir, int parallelism) throws IOException {
+		Files.createDirectories(outDir);
+		final ThreadLocal<AxmlEncoder> encoders=new ThreadLocal<AxmlEncoder>();
+		return Batch.run(inputs, outDir, parallelism, new Batch.Job() {
+				public void run(Path input, Path output) throws Exception {
+					AxmlEncoder encoder=encoders.get();
+					if (encoder == null) {
+						encoder = new AxmlEncoder();
+						encoders.set(encoder);
+					}
+					encoder.encode(input, output);
+				}
+			});
 	}
 
-	private static void logs(String format, Object...arguments) {
-		out.printf(format, arguments);
+	static String getAttributeValue(AXmlResourceParser parser, int index, ValueRenderer renderer) {
+		int length=renderer.render(parser.getAttributeValueType(index), parser.getAttributeValueData(index));
+		if (length == -1) {
+			return parser.getAttributeValue(index);
+		}
+		return new String(renderer.getChars(), 0, length);
 	}
 
 	/////////////////////////////////// ILLEGAL STUFF, DONT LOOK :)
@@ -206,12 +145,6 @@ public class AxmlUtil {
 	private static final float RADIX_MULTS[]={
 		0.00390625F,3.051758E-005F,1.192093E-007F,4.656613E-010F
 	};
-	private static final String DIMENSION_UNITS[]={
-		"px","dip","sp","pt","in","mm","",""
-	};
-	private static final String FRACTION_UNITS[]={
-		"%","%p","","","","","",""
-	};
 }
 abstract class Chunk<H extends Chunk.Header> {
 
@@ -272,20 +205,12 @@ abstract class Chunk<H extends Chunk.Header> {
     }
 
 
+    /**
+     * Subclasses create their header right after calling this,
+     * before anything else touches it.
+     */
     public Chunk(Chunk parent) {
         this.parent = parent;
-        try {
-            Class<H> t = (Class<H>)((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-            Constructor[] cs=t.getConstructors();
-            for (Constructor c:cs) {
-                Type[] ts=c.getParameterTypes();
-                if (ts.length == 1 && Chunk.class.isAssignableFrom((Class<?>)ts[0]))
-                    header = (H) c.newInstance(this);
-            }
-        } catch (Exception e) {
-
-            throw new RuntimeException(e);
-        }
     }
 
     protected Context context;
@@ -382,6 +307,7 @@ class EndNameSpaceChunk extends Chunk<EndNameSpaceChunk.H> {
     public StartNameSpaceChunk start;
     public EndNameSpaceChunk(Chunk parent, StartNameSpaceChunk start) {
 		super(parent);
+		header = new H();
 		this.start = start;
     }
     @Override
@@ -402,6 +328,7 @@ class EndTagChunk extends Chunk<EndTagChunk.H> {
     public StartTagChunk start;
     public EndTagChunk(Chunk parent, StartTagChunk start) {
 		super(parent);
+		header = new H();
 		this.start = start;
     }
 
@@ -428,27 +355,24 @@ class ResourceMapChunk extends Chunk<ResourceMapChunk.H> {
 
     public ResourceMapChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
-    private LinkedList<Integer> ids;
+    private int[] ids;
 
     @Override
     public void preWrite() {
 		List<StringPoolChunk.RawString> rss=stringPool().rawStrings;
-		ids = new LinkedList<Integer>();
-		for (StringPoolChunk.RawString r:rss) {
-			if (r.origin.id >= 0) {
-				ids.add(r.origin.id);
-			} else {
-				break;
-			}
-		}
-		header.size = ids.size() * 4 + header.headerSize;
+		int count=0;
+		while (count < rss.size() && rss.get(count).origin.id >= 0) ++count;
+		ids = new int[count];
+		for (int i=0;i < count;++i) ids[i] = rss.get(i).origin.id;
+		header.size = ids.length * 4 + header.headerSize;
     }
 
     @Override
     public void writeEx(IntWriter w) throws IOException {
-		for (int i:ids) w.write(i);
+		w.write(ids);
     }
 }
 
@@ -456,6 +380,7 @@ class StartNameSpaceChunk extends Chunk<StartNameSpaceChunk.H> {
 
     public StartNameSpaceChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
     public class H extends Chunk.NodeHeader {
@@ -496,6 +421,7 @@ class StartTagChunk extends Chunk<StartTagChunk.H> {
 
     public StartTagChunk(Chunk parent, XmlPullParser p) throws XmlPullParserException {
 		super(parent);
+		header = new H();
 		name = p.getName();
 		stringPool().addString(name);
 		prefix = p.getPrefix();
@@ -559,6 +485,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 
     public StringPoolChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
     public class H extends Chunk.Header {
@@ -596,7 +523,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 			if (cdata != null) {
 				return (cdata.length * 2 + 4) & 2;
 			} else {
-				//return (4-((bdata.length+3)&3))&3;
+				// UTF-8 data is padded once, after the last string.
 				return 0;
 			}
         }
@@ -605,23 +532,32 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 			if (cdata != null) {
 				return cdata.length * 2 + 4 + padding();
 			} else {
-				return bdata.length + 3 + padding();
+				return lengthSize(length()) + lengthSize(bdata.length) + bdata.length + 1 + padding();
 			}
         }
 
+        static int lengthSize(int length) {
+			return length > 0x7F ? 2 : 1;
+        }
+
+        static void writeLength(IntWriter w, int length) throws IOException {
+			if (length > 0x7F) w.write((byte)((length >>> 8) | 0x80));
+			w.write((byte)length);
+        }
+
         void write(IntWriter w) throws IOException {
 			if (cdata != null) {
 				int pos=w.getPos();
 				w.write((short)length());
-				for (char c:cdata) w.write(c);
+				w.write(cdata);
 				w.write((short)0);
 				if (padding() == 2)w.write((short)0);
 				assert size() == w.getPos() - pos:size() + "," + (w.getPos() - pos);
 			} else {
 				int pos=w.getPos();
-				w.write((byte)length());
-				w.write((byte)bdata.length);
-				for (byte c:bdata) w.write(c);
+				writeLength(w, length());
+				writeLength(w, bdata.length);
+				w.write(bdata);
 				w.write((byte)0);
 				int p=padding();
 				for (int i=0;i < p;++i) w.write((byte)0);
@@ -631,11 +567,20 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
     }
 
     public enum Encoding {UNICODE,UTF8}
+    /**
+     * Order of strings without a resource id, which always follow the
+     * ones with an id. Both give identical bytes for identical input.
+     */
+    public enum Order {FIRST_SEEN,SORTED}
     public int[] stringsOffset;
     public int[] stylesOffset;
+    private int stringsPadding;
     public ArrayList<RawString> rawStrings;
+    private HashMap<String,Integer> index;
+    private int[] sameString;
 
     public Encoding encoding = AxmlUtil.Config.encoding;
+    public Order order = AxmlUtil.Config.stringOrder;
 
     @Override
     public void preWrite() {
@@ -672,13 +617,19 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 					int r = rhs.origin.id;
 					if (l == -1) l = Integer.MAX_VALUE;
 					if (r == -1) r = Integer.MAX_VALUE;
-					return l - r;
+					if (l != r) return l < r ? -1 : 1;
+					// The sort is stable, ties otherwise stay in first seen order.
+					if (order == Order.SORTED) return lhs.origin.string.compareTo(rhs.origin.string);
+					return 0;
 				}
 			});
 		for (RawString r:rawStrings) {
 			offsets.add(off);
 			off += r.size();
 		}
+		// String data must end on a 4 byte boundary, only UTF-8 needs it.
+		stringsPadding = (4 - (off & 3)) & 3;
+		off += stringsPadding;
 		header.stringCount = rawStrings.size();
 		header.styleCount = 0;
 		header.size = off + header.headerSize + header.stringCount * 4 + header.styleCount * 4;
@@ -689,13 +640,30 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 		i = 0;
 		for (int x:offsets) stringsOffset[i++] = x;
 		stylesOffset = new int[0];
+		buildIndex();
+    }
+
+    /**
+     * Maps each string to its first position in rawStrings, and chains
+     * later positions of the same string through sameString, so
+     * stringIndex() does not have to scan the pool.
+     */
+    private void buildIndex() {
+		int l=rawStrings.size();
+		index = new HashMap<String,Integer>(l * 4 / 3 + 1);
+		sameString = new int[l];
+		for (int i=l - 1;i >= 0;--i) {
+			Integer next=index.put(rawStrings.get(i).origin.string, i);
+			sameString[i] = next == null ?-1: next;
+		}
     }
 
     @Override
     public void writeEx(IntWriter w) throws IOException {
-		for (int i:stringsOffset) w.write(i);
-		for (int i:stylesOffset) w.write(i);
+		w.write(stringsOffset);
+		w.write(stylesOffset);
 		for (RawString r:rawStrings) r.write(w);
+		for (int i=0;i < stringsPadding;++i) w.write((byte)0);
 		//TODO styles;
     }
 
@@ -730,11 +698,17 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
         }
     }
 
-    private HashMap<String,LinkedList<StringItem>> map=new HashMap<String,LinkedList<StringItem>>();
+    // Linked, so strings come out in the order they were added.
+    private LinkedHashMap<String,LinkedList<StringItem>> map=new LinkedHashMap<String,LinkedList<StringItem>>();
     private String preHandleString(String s) {
 		return s;
     }
+    /**
+     * Once the pool is laid out strings can no longer be added, calls
+     * after that are ignored.
+     */
     public void addString(String s) {
+		if (rawStrings != null) return;
 		s = preHandleString(s);
 		LinkedList<StringItem> list=map.get(s);
 		if (list == null) map.put(s, list = new LinkedList<StringItem>());
@@ -744,6 +718,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
     }
 
     public void addString(String namespace, String s) {
+		if (rawStrings != null) return;
 		namespace = preHandleString(namespace);
 		s = preHandleString(s);
 		LinkedList<StringItem> list=map.get(s);
@@ -761,10 +736,12 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 		namespace = preHandleString(namespace);
 		s = preHandleString(s);
 		if (isEmpty(s)) return -1;
-		int l=rawStrings.size();
-		for (int i=0;i < l;++i) {
-			StringItem item=rawStrings.get(i).origin;
-			if (s.equals(item.string) && (isEmpty(namespace) || namespace.equals(item.namespace))) return i;
+		Integer first=index.get(s);
+		if (first != null) {
+			if (isEmpty(namespace)) return first;
+			for (int i=first;i != -1;i = sameString[i]) {
+				if (namespace.equals(rawStrings.get(i).origin.namespace)) return i;
+			}
 		}
 		throw new RuntimeException("String: '" + s + "' not found");
 		//return -1;
@@ -786,6 +763,7 @@ class TagChunk extends Chunk<Chunk.EmptyHeader> {
 
     public TagChunk(Chunk parent, XmlPullParser p) throws XmlPullParserException {
 		super(parent);
+		header = new EmptyHeader();
 		if (parent instanceof TagChunk) {
 			((TagChunk) parent).content.add(this);
 		} else if (parent instanceof XmlChunk) {
@@ -824,24 +802,6 @@ class TagChunk extends Chunk<Chunk.EmptyHeader> {
 
 class ValueChunk extends Chunk<Chunk.EmptyHeader> {
 
-    class ValPair {
-        int pos;
-        String val;
-
-        public ValPair(Matcher m) {
-			int c = m.groupCount();
-			for (int i = 1; i <= c; ++i) {
-				String s = m.group(i);
-				if (s == null || s.isEmpty()) continue;
-				pos = i;
-				val = s;
-				return;
-			}
-			pos = -1;
-			val = m.group();
-        }
-    }
-
     private AttrChunk attrChunk;
     private String realString;
     short size = 8;
@@ -849,22 +809,9 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
     byte type = -1;
     int data = -1;
 
-    Pattern explicitType = Pattern.compile("!(?:(\\w+)!)?(.*)");
-    Pattern types = Pattern.compile(("^(?:" +
-									"(@null)" +
-									"|(@\\+?(?:\\w+:)?\\w+/\\w+|@(?:\\w+:)?[0-9a-zA-Z]+)" +
-									"|(true|false)" +
-									"|([-+]?\\d+)" +
-									"|(0x[0-9a-zA-Z]+)" +
-									"|([-+]?\\d+(?:\\.\\d+)?)" +
-									"|([-+]?\\d+(?:\\.\\d+)?(?:dp|dip|in|px|sp|pt|mm))" +
-									"|([-+]?\\d+(?:\\.\\d+)?(?:%))" +
-									"|(\\#(?:[0-9a-fA-F]{3}|[0-9a-fA-F]{4}|[0-9a-fA-F]{6}|[0-9a-fA-F]{8}))" +
-									"|(match_parent|wrap_content|fill_parent)" +
-									")$").replaceAll("\\s+", ""));
-
     public ValueChunk(AttrChunk parent) {
 		super(parent);
+		header = new EmptyHeader();
 		header.size = 8;
 		this.attrChunk = parent;
     }
@@ -874,6 +821,13 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
 		evaluate();
     }
 
+    /**
+     * Returns the string of a parsed string value, null for other types.
+     */
+    String getString() {
+		return type == ValueType.STRING ? realString : null;
+    }
+
     @Override
     public void writeEx(IntWriter w) throws IOException {
 		w.write(size);
@@ -936,78 +890,212 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
     }
 
     public void evaluate() {
-		Matcher m = explicitType.matcher(attrChunk.rawValue);
-		if (m.find()) {
-			String t = m.group(1);
-			String v = m.group(2);
+		parse();
+		if (type == ValueType.STRING) stringPool().addString(realString);
+    }
+
+    /**
+     * Sets type and data, or the string of string values, from the raw
+     * value without adding anything to the string pool.
+     */
+    void parse() {
+		String raw = attrChunk.rawValue;
+		int bang = raw.indexOf('!');
+		if (bang != -1) {
+			// "!value" or "!type!value", anywhere in the raw value.
+			String t = null;
+			int start = bang + 1;
+			int word = wordEnd(raw, start);
+			if (word != start && word < raw.length() && raw.charAt(word) == '!') {
+				t = raw.substring(start, word);
+				start = word + 1;
+			}
+			String v = raw.substring(start, lineEnd(raw, start));
 			if (t == null || t.isEmpty() || t.equals("string") || t.equals("str")) {
 				type = ValueType.STRING;
 				realString = v;
-				stringPool().addString(realString);
 				//data = stringIndex(null, v);
 			} else {
 				//TODO resolve other type
 				throw new RuntimeException();
 			}
 		} else {
-			m = types.matcher(attrChunk.rawValue);
-			if (m.find()) {
-				ValPair vp = new ValPair(m);
-				switch (vp.pos) {
-					case 1:
-						type = ValueType.NULL;
-						data = 0;
-						break;
-					case 2:
-						type = ValueType.REFERENCE;
-						data = getReferenceResolver().resolve(this, vp.val);
-						break;
-					case 3:
-						type = ValueType.INT_BOOLEAN;
-						data = "true".equalsIgnoreCase(vp.val) ? 1 : 0;
-						break;
-					case 4:
-						type = ValueType.INT_DEC;
-						data = Integer.parseInt(vp.val);
-						break;
-					case 5:
-						type = ValueType.INT_HEX;
-						data = Integer.parseInt(vp.val.substring(2), 16);
-						break;
-					case 6:
-						type = ValueType.FLOAT;
-						data = Float.floatToIntBits(Float.parseFloat(vp.val));
-						break;
-					case 7:
-						type = ValueType.DIMENSION;
-						data = evalcomplex(vp.val);
-						break;
-					case 8:
-						type = ValueType.FRACTION;
-						data = evalcomplex(vp.val);
-						break;
-					case 9:
-						type = ValueType.INT_COLOR_ARGB8;
-						data = parseColor(vp.val);
-						break;
-					case 10:
-						type = ValueType.INT_DEC;
-						data = "wrap_content".equalsIgnoreCase(vp.val) ? -2 : -1;
-						break;
-					default:
-						type = ValueType.STRING;
-						realString = vp.val;
-						stringPool().addString(realString);
-						//data = stringIndex(null, attrChunk.rawValue);
-						break;
-				}
-			} else {
-				type = ValueType.STRING;
-				realString = attrChunk.rawValue;
-				stringPool().addString(realString);
-				//data = stringIndex(null, attrChunk.rawValue);
+			String val = stripLineTerminator(raw);
+			switch (classify(val)) {
+				case VALUE_NULL:
+					type = ValueType.NULL;
+					data = 0;
+					break;
+				case VALUE_REFERENCE:
+					type = ValueType.REFERENCE;
+					data = getReferenceResolver().resolve(this, val);
+					break;
+				case VALUE_BOOLEAN:
+					type = ValueType.INT_BOOLEAN;
+					data = "true".equalsIgnoreCase(val) ? 1 : 0;
+					break;
+				case VALUE_INT:
+					type = ValueType.INT_DEC;
+					data = Integer.parseInt(val);
+					break;
+				case VALUE_HEX:
+					type = ValueType.INT_HEX;
+					data = Integer.parseInt(val.substring(2), 16);
+					break;
+				case VALUE_FLOAT:
+					type = ValueType.FLOAT;
+					data = Float.floatToIntBits(Float.parseFloat(val));
+					break;
+				case VALUE_DIMENSION:
+					type = ValueType.DIMENSION;
+					data = evalcomplex(val);
+					break;
+				case VALUE_FRACTION:
+					type = ValueType.FRACTION;
+					data = evalcomplex(val);
+					break;
+				case VALUE_COLOR:
+					type = ValueType.INT_COLOR_ARGB8;
+					data = parseColor(val);
+					break;
+				case VALUE_KEYWORD:
+					type = ValueType.INT_DEC;
+					data = "wrap_content".equalsIgnoreCase(val) ? -2 : -1;
+					break;
+				default:
+					type = ValueType.STRING;
+					realString = raw;
+					//data = stringIndex(null, attrChunk.rawValue);
+					break;
+			}
+		}
+    }
+
+    static final int
+    VALUE_STRING = 0,
+    VALUE_NULL = 1,
+    VALUE_REFERENCE = 2,
+    VALUE_BOOLEAN = 3,
+    VALUE_INT = 4,
+    VALUE_HEX = 5,
+    VALUE_FLOAT = 6,
+    VALUE_DIMENSION = 7,
+    VALUE_FRACTION = 8,
+    VALUE_COLOR = 9,
+    VALUE_KEYWORD = 10;
+
+    private static final String[] UNITS={"dp","dip","in","px","sp","pt","mm"};
+
+    /**
+     * Classifies a value in one pass, checking the forms in this order:
+     * @null, @[+][pkg:]type/name or @[pkg:]id, true/false, [-+]digits,
+     * 0x..., [-+]digits.digits, number with a dimension unit, number with
+     * %, #rgb/#argb/#rrggbb/#aarrggbb and the layout size keywords.
+     * Returns VALUE_STRING for anything else.
+     */
+    static int classify(String val) {
+		int length = val.length();
+		if (length == 0) return VALUE_STRING;
+		char first = val.charAt(0);
+		if (first == '@') {
+			if (val.equals("@null")) return VALUE_NULL;
+			return isReference(val) ? VALUE_REFERENCE : VALUE_STRING;
+		}
+		if (first == '#') {
+			int digits = length - 1;
+			if (digits != 3 && digits != 4 && digits != 6 && digits != 8) return VALUE_STRING;
+			for (int i = 1; i < length; ++i) {
+				char c = val.charAt(i);
+				if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) return VALUE_STRING;
 			}
+			return VALUE_COLOR;
+		}
+		if (val.equals("true") || val.equals("false")) return VALUE_BOOLEAN;
+		if (val.equals("match_parent") || val.equals("wrap_content") || val.equals("fill_parent")) return VALUE_KEYWORD;
+		if (length > 2 && val.startsWith("0x") && alnumEnd(val, 2) == length) return VALUE_HEX;
+		int i = 0;
+		if (first == '-' || first == '+') ++i;
+		int integer = digitEnd(val, i);
+		if (integer == i) return VALUE_STRING;
+		if (integer == length) return VALUE_INT;
+		int end = integer;
+		if (val.charAt(end) == '.') {
+			int fraction = digitEnd(val, end + 1);
+			if (fraction != end + 1) end = fraction;
 		}
+		if (end == length) return end == integer ? VALUE_INT : VALUE_FLOAT;
+		String suffix = val.substring(end);
+		if (suffix.equals("%")) return VALUE_FRACTION;
+		for (String unit : UNITS) {
+			if (suffix.equals(unit)) return VALUE_DIMENSION;
+		}
+		return VALUE_STRING;
+    }
+
+    /**
+     * @[+][pkg:]type/name, or without + and type, @[pkg:]id with an
+     * alphanumeric id.
+     */
+    private static boolean isReference(String val) {
+		int length = val.length();
+		int i = 1;
+		boolean plus = i < length && val.charAt(i) == '+';
+		if (plus) ++i;
+		int word = wordEnd(val, i);
+		if (word == i) return false;
+		int start = i;
+		if (word < length && val.charAt(word) == ':') {
+			start = word + 1;
+			word = wordEnd(val, start);
+			if (word == start) return false;
+		}
+		if (word < length && val.charAt(word) == '/') {
+			return wordEnd(val, word + 1) == length && word + 1 != length;
+		}
+		return !plus && word == length && alnumEnd(val, start) == length;
+    }
+
+    private static int wordEnd(String s, int i) {
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) break;
+			++i;
+		}
+		return i;
+    }
+
+    private static int alnumEnd(String s, int i) {
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) break;
+			++i;
+		}
+		return i;
+    }
+
+    private static int digitEnd(String s, int i) {
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') ++i;
+		return i;
+    }
+
+    private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static int lineEnd(String s, int i) {
+		while (i < s.length() && !isLineTerminator(s.charAt(i))) ++i;
+		return i;
+    }
+
+    /**
+     * Drops one trailing line terminator, the classified forms may be
+     * followed by one (as the former "$" anchored patterns allowed).
+     */
+    private static String stripLineTerminator(String s) {
+		int length = s.length();
+		if (length >= 2 && s.charAt(length - 2) == '\r' && s.charAt(length - 1) == '\n') return s.substring(0, length - 2);
+		if (length >= 1 && isLineTerminator(s.charAt(length - 1))) return s.substring(0, length - 1);
+		return s;
     }
 	
 	public static int parseColor(String colorString) {
@@ -1063,6 +1151,7 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
 class XmlChunk extends Chunk<XmlChunk.H> {
     public XmlChunk() {
 		super(null);
+		header = new H();
 		this.context = new Context();
     }
 
@@ -1115,6 +1204,7 @@ class AttrChunk extends Chunk<Chunk.EmptyHeader> {
 
     public AttrChunk(StartTagChunk startTagChunk) {
         super(startTagChunk);
+        header = new EmptyHeader();
         this.startTagChunk = startTagChunk;
         header.size = 20;
     }
@@ -1136,28 +1226,39 @@ class AttrChunk extends Chunk<Chunk.EmptyHeader> {
     }
 }
 
+/**
+ * Writes little-endian values through a ByteBuffer, either one the
+ * caller owns or one that is flushed to a stream whenever it fills up.
+ * Arrays are written in bulk.
+ */
 class IntWriter {
     private OutputStream os;
+    private ByteBuffer buffer;
     public boolean bigEndian=false;
     private int pos=0;
 
     public IntWriter(OutputStream os) {
 		this.os = os;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes into buffer from its position on, the buffer must be
+     * little-endian and large enough, it is never grown.
+     */
+    public IntWriter(ByteBuffer buffer) {
+		this.buffer = buffer;
     }
 
     public void write(byte b) throws IOException {
-		os.write(b);
+		ensure(1);
+		buffer.put(b);
 		pos += 1;
     }
 
     public void write(short s) throws IOException {
-		if (!bigEndian) {
-			os.write(s & 0xff);
-			os.write((s >>> 8) & 0xff);
-		} else {
-			os.write((s >>> 8) & 0xff);
-			os.write(s & 0xff);
-		}
+		ensure(2);
+		buffer.putShort(bigEndian ? Short.reverseBytes(s) : s);
 		pos += 2;
     }
 
@@ -1166,31 +1267,88 @@ class IntWriter {
     }
 
     public void write(int x) throws IOException {
-		if (!bigEndian) {
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-		} else {
+		if (bigEndian) {
 			throw new RuntimeException();
 		}
+		ensure(4);
+		buffer.putInt(x);
 		pos += 4;
     }
 
+    public void write(byte[] bytes) throws IOException {
+		for (int i=0;i != bytes.length;) {
+			ensure(1);
+			int n=Math.min(bytes.length - i, buffer.remaining());
+			buffer.put(bytes, i, n);
+			i += n;
+		}
+		pos += bytes.length;
+    }
+
+    public void write(char[] chars) throws IOException {
+		if (bigEndian) {
+			for (char c:chars) write(c);
+			return;
+		}
+		for (int i=0;i != chars.length;) {
+			ensure(2);
+			int n=Math.min(chars.length - i, buffer.remaining() / 2);
+			buffer.asCharBuffer().put(chars, i, n);
+			buffer.position(buffer.position() + n * 2);
+			i += n;
+		}
+		pos += chars.length * 2;
+    }
+
+    public void write(int[] ints) throws IOException {
+		if (bigEndian) {
+			throw new RuntimeException();
+		}
+		for (int i=0;i != ints.length;) {
+			ensure(4);
+			int n=Math.min(ints.length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(ints, i, n);
+			buffer.position(buffer.position() + n * 4);
+			i += n;
+		}
+		pos += ints.length * 4;
+    }
+
     public void writePlaceHolder(int len, String name) throws IOException {
-		os.write(new byte[len]);
+		write(new byte[len]);
+    }
+
+    /**
+     * Writes out what is buffered and flushes the stream.
+     */
+    public void flush() throws IOException {
+		if (os == null) return;
+		os.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+		os.flush();
     }
 
     public void close() throws IOException {
-		os.close();
+		flush();
+		if (os != null) os.close();
     }
 
     public int getPos() {
 		return pos;
     }
+
+    /**
+     * Makes room for n bytes, n is at most 4 so a drained buffer always
+     * has it.
+     */
+    private void ensure(int n) throws IOException {
+		if (buffer.remaining() >= n) return;
+		if (os == null) throw new BufferOverflowException();
+		os.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+    }
+
+    private static final int BUFFER_SIZE = 8192;
 }
 
 class Context {
@@ -1319,14 +1477,33 @@ class IntReader {
 	public IntReader(InputStream stream, boolean bigEndian) {
 		reset(stream, bigEndian);
 	}
+	public IntReader(ByteBuffer buffer) {
+		reset(buffer);
+	}
 
 	public final void reset(InputStream stream, boolean bigEndian) {
 		m_stream = stream;
+		m_buffer = null;
 		m_bigEndian = bigEndian;
 		m_position = 0;		
 	}
 
+	/**
+	 * Reads directly from the buffer, starting at its current position.
+	 * The buffer itself is not modified, a little-endian view of it is used.
+	 */
+	public final void reset(ByteBuffer buffer) {
+		m_stream = null;
+		m_buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		m_bigEndian = false;
+		m_position = 0;
+	}
+
 	public final void close() {
+		if (m_buffer != null) {
+			reset(null, false);
+			return;
+		}
 		if (m_stream == null) {
 			return;
 		}
@@ -1341,11 +1518,18 @@ class IntReader {
 		return m_stream;
 	}
 
+	public final ByteBuffer getBuffer() {
+		return m_buffer;
+	}
+
 	public final boolean isBigEndian() {
 		return m_bigEndian;
 	}
 	public final void setBigEndian(boolean bigEndian) {
 		m_bigEndian = bigEndian;
+		if (m_buffer != null) {
+			m_buffer.order(bigEndian ?ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+		}
 	}
 
 	public final int readByte() throws IOException {
@@ -1362,6 +1546,9 @@ class IntReader {
 		if (length < 0 || length > 4) {
 			throw new IllegalArgumentException();
 		}
+		if (m_buffer != null) {
+			return readBufferInt(length);
+		}
 		int result=0;
 		if (m_bigEndian) {
 			for (int i=(length - 1) * 8;i >= 0;i -= 8) {
@@ -1392,18 +1579,71 @@ class IntReader {
 		return array;
 	}
 
+	/**
+	 * Reads the whole region at once and converts it through an IntBuffer view,
+	 * rather than assembling each int byte by byte.
+	 */
 	public final void readIntArray(int[] array, int offset, int length) throws IOException {
-		for (;length > 0;length -= 1) {
-			array[offset++] = readInt();
+		if (length <= 0) {
+			return;
+		}
+		ByteBuffer bytes;
+		if (m_buffer != null) {
+			if (m_buffer.remaining() / 4 < length) {
+				throw new EOFException();
+			}
+			if (length < BULK_READ_MIN) {
+				// Short arrays (attributes) are cheaper without a view.
+				for (;length > 0;length -= 1) {
+					array[offset++] = m_buffer.getInt();
+				}
+				return;
+			}
+			bytes = m_buffer;
+		} else {
+			bytes = ByteBuffer.wrap(readByteArray(length * 4))
+				.order(m_bigEndian ?ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+		}
+		bytes.asIntBuffer().get(array, offset, length);
+		if (m_buffer != null) {
+			m_buffer.position(m_buffer.position() + length * 4);
 		}
 	}
 
+	/**
+	 * Returns the next length bytes as a little-endian buffer.
+	 * For a buffer-backed reader this is a view, nothing is copied.
+	 */
+	public final ByteBuffer readBuffer(int length) throws IOException {
+		if (m_buffer == null) {
+			return ByteBuffer.wrap(readByteArray(length)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (m_buffer.remaining() < length) {
+			throw new EOFException();
+		}
+		ByteBuffer view=m_buffer.slice();
+		view.limit(length);
+		m_buffer.position(m_buffer.position() + length);
+		return view.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
 	public final byte[] readByteArray(int length) throws IOException {
 		byte[] array=new byte[length];
-		int read=m_stream.read(array);
-		m_position += read;
-		if (read != length) {
-			throw new EOFException();
+		if (m_buffer != null) {
+			if (m_buffer.remaining() < length) {
+				throw new EOFException();
+			}
+			m_buffer.get(array);
+			return array;
+		}
+		int offset=0;
+		while (offset != length) {
+			int read=m_stream.read(array, offset, length - offset);
+			if (read == -1) {
+				throw new EOFException();
+			}
+			offset += read;
+			m_position += read;
 		}
 		return array;
 	}
@@ -1412,10 +1652,24 @@ class IntReader {
 		if (bytes <= 0) {
 			return;
 		}
-		long skipped=m_stream.skip(bytes);
-		m_position += skipped;
-		if (skipped != bytes) {
-			throw new EOFException();
+		if (m_buffer != null) {
+			if (m_buffer.remaining() < bytes) {
+				throw new EOFException();
+			}
+			m_buffer.position(m_buffer.position() + bytes);
+			return;
+		}
+		// Buffered streams may skip less than asked for, so fall back to read().
+		while (bytes != 0) {
+			long skipped=m_stream.skip(bytes);
+			if (skipped <= 0) {
+				if (m_stream.read() == -1) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			bytes -= skipped;
+			m_position += skipped;
 		}
 	}
 
@@ -1424,16 +1678,54 @@ class IntReader {
 	}
 
 	public final int available() throws IOException {
+		if (m_buffer != null) {
+			return m_buffer.remaining();
+		}
 		return m_stream.available();
 	}
 
 	public final int getPosition() {
+		if (m_buffer != null) {
+			return m_buffer.position();
+		}
 		return m_position;
 	}
 
+	///////////////////////////////////
+
+	private final int readBufferInt(int length) throws IOException {
+		if (m_buffer.remaining() < length) {
+			throw new EOFException();
+		}
+		switch (length) {
+			case 4:
+				return m_buffer.getInt();
+			case 2:
+				return m_buffer.getShort() & 0xFFFF;
+			case 1:
+				return m_buffer.get() & 0xFF;
+			case 0:
+				return 0;
+		}
+		int result=0;
+		if (m_bigEndian) {
+			for (int i=(length - 1) * 8;i >= 0;i -= 8) {
+				result |= ((m_buffer.get() & 0xFF) << i);
+			}
+		} else {
+			for (int i=0;i != length * 8;i += 8) {
+				result |= ((m_buffer.get() & 0xFF) << i);
+			}
+		}
+		return result;
+	}
+
 	/////////////////////////////////// data
 
 	private InputStream m_stream;
+	private ByteBuffer m_buffer;
+
+	private static final int BULK_READ_MIN = 64;
 	private boolean m_bigEndian;
 	private int m_position;
 }
@@ -1445,25 +1737,47 @@ interface ReferenceResolver {
 class StringBlock {
 
 	public static StringBlock read(IntReader reader) throws IOException {
+		return read(reader, null);
+	}
+
+	/**
+	 * Reads the block into recycled (if not null), reusing its arrays
+	 * wherever they are large enough.
+	 */
+	public static StringBlock read(IntReader reader, StringBlock recycled) throws IOException {
 		ChunkUtil.readCheckType(reader, 0x001C0001);
 		int chunkSize=reader.readInt();
 		int stringCount=reader.readInt();
 		int styleOffsetCount=reader.readInt();
-		/*?*/reader.readInt();
+		int flags=reader.readInt();
 		int stringsOffset=reader.readInt();
 		int stylesOffset=reader.readInt();
 
-		StringBlock block=new StringBlock();
-		block.m_stringOffsets = reader.readIntArray(stringCount);
+		StringBlock block=(recycled != null) ?recycled: new StringBlock();
+		block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
+		block.m_stringCount = stringCount;
+		if (block.m_stringOffsets == null || block.m_stringOffsets.length < stringCount) {
+			block.m_stringOffsets = new int[stringCount];
+		}
+		reader.readIntArray(block.m_stringOffsets, 0, stringCount);
+		block.m_styleOffsets = null;
+		block.m_styles = null;
 		if (styleOffsetCount != 0) {
 			block.m_styleOffsets = reader.readIntArray(styleOffsetCount);
 		}
+		if (block.m_cache != null) {
+			Arrays.fill(block.m_cache, null);
+		}
+		if (block.m_index != null) {
+			block.m_index.clear();
+			block.m_indexed = false;
+		}
 		{
 			int size=((stylesOffset == 0) ?chunkSize: stylesOffset) - stringsOffset;
 			if ((size % 4) != 0) {
 				throw new IOException("String data size is not multiple of 4 (" + size + ").");
 			}
-			block.m_strings = reader.readIntArray(size / 4);
+			block.m_strings = reader.readBuffer(size);
 		}
 		if (stylesOffset != 0) {
 			int size=(chunkSize - stylesOffset);
@@ -1480,28 +1794,44 @@ class StringBlock {
 	 * Returns number of strings in block. 
 	 */
 	public int getCount() {
-		return m_stringOffsets != null ?
-			m_stringOffsets.length:
-			0;
+		return m_stringCount;
 	}
 
 	/**
 	 * Returns raw string (without any styling information) at specified index.
 	 */
 	public String getString(int index) {
-		if (index < 0 ||
-			m_stringOffsets == null ||
-			index >= m_stringOffsets.length) {
+		if (index < 0 || index >= m_stringCount) {
 			return null;
 		}
-		int offset=m_stringOffsets[index];
-		int length=getShort(m_strings, offset);
-		StringBuilder result=new StringBuilder(length);
-		for (;length != 0;length -= 1) {
-			offset += 2;
-			result.append((char)getShort(m_strings, offset));
+		if (m_cacheLimit >= 0 && index >= m_cacheLimit) {
+			return decodeString(index);
 		}
-		return result.toString();
+		if (m_cache == null || index >= m_cache.length) {
+			m_cache = new String[m_cacheLimit >= 0 ?
+								 Math.min(m_cacheLimit, m_stringCount):
+								 m_stringCount];
+		}
+		String result=m_cache[index];
+		if (result == null) {
+			result = decodeString(index);
+			m_cache[index] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Limits the decoded string cache to the first limit indices,
+	 * strings past it are decoded on every call.
+	 * A negative limit caches every string, 0 disables the cache.
+	 */
+	public void setCacheLimit(int limit) {
+		m_cacheLimit = limit;
+		m_cache = null;
+	}
+
+	public int getCacheLimit() {
+		return m_cacheLimit;
 	}
 
 	/**
@@ -1571,29 +1901,42 @@ class StringBlock {
 	/**
 	 * Finds index of the string.
 	 * Returns -1 if the string was not found.
+	 * The first call builds a string to index map of the whole pool.
 	 */
 	public int find(String string) {
-		if (string == null) {
+		if (string == null || m_stringCount == 0) {
 			return -1;
 		}
-		for (int i=0;i != m_stringOffsets.length;++i) {
-			int offset=m_stringOffsets[i];
-			int length=getShort(m_strings, offset);
-			if (length != string.length()) {
-				continue;
+		if (!m_indexed) {
+			if (m_index == null) {
+				m_index = new HashMap<String,Integer>(m_stringCount * 4 / 3 + 1);
 			}
-			int j=0;
-			for (;j != length;++j) {
-				offset += 2;
-				if (string.charAt(j) != getShort(m_strings, offset)) {
-					break;
-				}
-			}
-			if (j == length) {
-				return i;
+			for (int i=m_stringCount - 1;i >= 0;--i) {
+				// Walking backwards leaves the first of any duplicates in the map.
+				m_index.put(getString(i), i);
 			}
+			m_indexed = true;
 		}
-		return -1;
+		Integer i=m_index.get(string);
+		return i == null ?-1: i;
+	}
+
+	/**
+	 * Copies the string data out of the reader's buffer so the block can
+	 * outlive it, and trims everything else to size.
+	 * Decoded strings and the index are dropped, they are rebuilt on demand.
+	 */
+	void detach() {
+		ByteBuffer strings=ByteBuffer.allocate(m_strings.remaining());
+		strings.put(m_strings.duplicate());
+		strings.flip();
+		m_strings = strings.order(ByteOrder.LITTLE_ENDIAN);
+		if (m_stringOffsets.length != m_stringCount) {
+			m_stringOffsets = Arrays.copyOf(m_stringOffsets, m_stringCount);
+		}
+		m_cache = null;
+		m_index = null;
+		m_indexed = false;
 	}
 
 	///////////////////////////////////////////// implementation
@@ -1601,6 +1944,56 @@ class StringBlock {
 	private StringBlock() {
 	}
 
+	private String decodeString(int index) {
+		int offset=m_stringOffsets[index];
+		if (m_isUTF8) {
+			return decodeUTF8(offset);
+		}
+		int length=m_strings.getChar(offset);
+		if ((length & 0x8000) != 0) {
+			offset += 2;
+			length = ((length & 0x7FFF) << 16) | m_strings.getChar(offset);
+		}
+		char[] result=new char[length];
+		for (int i=0;i != length;++i) {
+			offset += 2;
+			result[i] = m_strings.getChar(offset);
+		}
+		return new String(result);
+	}
+
+	/**
+	 * UTF-8 entries start with two lengths, in chars and then in bytes,
+	 * each taking one byte, or two if the high bit of the first is set.
+	 */
+	private String decodeUTF8(int offset) {
+		int charCount=m_strings.get(offset++) & 0xFF;
+		if ((charCount & 0x80) != 0) {
+			charCount = ((charCount & 0x7F) << 8) | (m_strings.get(offset++) & 0xFF);
+		}
+		int length=m_strings.get(offset++) & 0xFF;
+		if ((length & 0x80) != 0) {
+			length = ((length & 0x7F) << 8) | (m_strings.get(offset++) & 0xFF);
+		}
+		byte[] bytes;
+		int start;
+		if (m_strings.hasArray()) {
+			bytes = m_strings.array();
+			start = m_strings.arrayOffset() + offset;
+		} else {
+			bytes = new byte[length];
+			start = 0;
+			ByteBuffer view=m_strings.duplicate();
+			view.position(offset);
+			view.get(bytes);
+		}
+		// One char per byte only happens when every byte is ASCII.
+		if (charCount == length) {
+			return new String(bytes, start, length, ISO_8859_1);
+		}
+		return new String(bytes, start, length, UTF_8);
+	}
+
 	/**
 	 * Returns style information - array of int triplets,
 	 * where in each triplet:
@@ -1637,17 +2030,24 @@ class StringBlock {
 		return style;
 	}
 
-	private static final int getShort(int[] array, int offset) {
-		int value=array[offset / 4];
-		if ((offset % 4) / 2 == 0) {
-			return (value & 0xFFFF);
-		} else {
-			return (value >>> 16);
-		}
-	}
-
+	private boolean m_isUTF8;
+	private int m_stringCount;
 	private int[] m_stringOffsets;
-	private int[] m_strings;
+	/*
+	 * Raw string data, a view over the reader's buffer when there is one.
+	 * Strings are only decoded when asked for.
+	 */
+	private ByteBuffer m_strings;
+	private String[] m_cache;
+	private HashMap<String,Integer> m_index;
+	private boolean m_indexed;
+	private int m_cacheLimit=AxmlUtil.Config.stringCacheLimit;
+
+	private static final int UTF8_FLAG = 0x100;
+
+	private static final Charset
+	UTF_8 = Charset.forName("UTF-8"),
+	ISO_8859_1 = Charset.forName("ISO-8859-1");
 	private int[] m_styleOffsets;
 	private int[] m_styles;
 
@@ -1715,10 +2115,66 @@ class AXmlResourceParser implements XmlResourceParser {
 	public void open(InputStream stream) {
 		close();
 		if (stream != null) {
+			if (!(stream instanceof BufferedInputStream || stream instanceof ByteArrayInputStream)) {
+				stream = new BufferedInputStream(stream);
+			}
 			m_reader = new IntReader(stream, false);
 		}
 	}
 
+	/**
+	 * Parses the binary xml held in the buffer, from its position to its limit.
+	 */
+	public void open(ByteBuffer buffer) {
+		close();
+		if (buffer != null) {
+			m_reader = new IntReader(buffer);
+		}
+	}
+
+	/**
+	 * Memory-maps the file and parses it in place.
+	 */
+	public void open(Path path) throws IOException {
+		open(map(path));
+	}
+
+	static ByteBuffer map(Path path) throws IOException {
+		FileChannel channel=FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Starts parsing a new document while keeping the reader, string pool,
+	 * resource id, attribute and namespace arrays of the previous one, so a
+	 * warmed up parser does not allocate per event.
+	 * The string pool is only reused if nobody took it through
+	 * getStringPool() or getStrings(), a block handed out keeps holding
+	 * the strings of its own document.
+	 */
+	public void reset(ByteBuffer buffer) {
+		if (m_strings != null && !m_stringsTaken) {
+			m_recycledStrings = m_strings;
+		}
+		m_stringsTaken = false;
+		m_operational = false;
+		if (m_reader == null) {
+			m_reader = new IntReader(buffer);
+		} else {
+			m_reader.close();
+			m_reader.reset(buffer);
+		}
+		m_strings = null;
+		m_resourceIDCount = 0;
+		m_namespaces.reset();
+		m_decreaseDepth = false;
+		resetEventInfo();
+	}
+
 	public void close() {
 		if (!m_operational) {
 			return;
@@ -1727,11 +2183,40 @@ class AXmlResourceParser implements XmlResourceParser {
 		m_reader.close();
 		m_reader = null;
 		m_strings = null;
+		m_recycledStrings = null;
+		m_stringsTaken = false;
 		m_resourceIDs = null;
+		m_resourceIDCount = 0;
+		m_attributes = null;
 		m_namespaces.reset();
+		m_decreaseDepth = false;
 		resetEventInfo();
 	}
 
+	/**
+	 * When set, START_TAG only records where the attribute records are and
+	 * each getter decodes the record it needs. Applies to parsers opened with
+	 * a ByteBuffer or a Path, streams always read attributes eagerly.
+	 */
+	public void setLazyAttributes(boolean lazy) {
+		m_lazyAttributes = lazy;
+	}
+
+	public boolean isLazyAttributes() {
+		return m_lazyAttributes;
+	}
+
+	/**
+	 * Sets the decoded string cache limit of the string pools this parser
+	 * reads, see StringBlock.setCacheLimit(int).
+	 */
+	public void setStringCacheLimit(int limit) {
+		m_stringCacheLimit = limit;
+		if (m_strings != null) {
+			m_strings.setCacheLimit(limit);
+		}
+	}
+
 	/////////////////////////////////// iteration
 
 	public int next() throws XmlPullParserException,IOException {
@@ -1781,6 +2266,25 @@ class AXmlResourceParser implements XmlResourceParser {
 		}
 	}
 
+	/**
+	 * Skips the element the parser is on, including all of its children, and
+	 * leaves the parser on its END_TAG.
+	 * Nested chunks are skipped by their size, only depth and namespaces are
+	 * tracked, attributes of skipped elements are never read.
+	 */
+	public int skipSubtree() throws XmlPullParserException,IOException {
+		if (m_event != START_TAG) {
+			throw new XmlPullParserException("Parser must be on START_TAG to skip a subtree.", this, null);
+		}
+		try {
+			doSkipSubtree();
+			return m_event;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
 	public void require(int type, String namespace, String name) throws XmlPullParserException,IOException {
 		if (type != getEventType() ||
 			(namespace != null && !namespace.equals(getNamespace())) ||
@@ -1861,7 +2365,7 @@ class AXmlResourceParser implements XmlResourceParser {
 			return null;
 		}
 		int offset=getAttributeOffset(m_classAttribute);
-		int value=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+		int value=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 		return m_strings.getString(value);
 	}
 
@@ -1870,7 +2374,7 @@ class AXmlResourceParser implements XmlResourceParser {
 			return null;
 		}
 		int offset=getAttributeOffset(m_idAttribute);
-		int value=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+		int value=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 		return m_strings.getString(value);
 	}
 
@@ -1879,11 +2383,11 @@ class AXmlResourceParser implements XmlResourceParser {
 			return defaultValue;
 		}
 		int offset=getAttributeOffset(m_idAttribute);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType != TypedValue.TYPE_REFERENCE) {
 			return defaultValue;
 		}
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public int getStyleAttribute() {
@@ -1891,19 +2395,19 @@ class AXmlResourceParser implements XmlResourceParser {
 			return 0;
 		}
 		int offset=getAttributeOffset(m_styleAttribute);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public int getAttributeCount() {
 		if (m_event != START_TAG) {
 			return -1;
 		}
-		return m_attributes.length / ATTRIBUTE_LENGHT;
+		return m_attributeCount;
 	}
 
 	public String getAttributeNamespace(int index) {
 		int offset=getAttributeOffset(index);
-		int namespace=m_attributes[offset + ATTRIBUTE_IX_NAMESPACE_URI];
+		int namespace=getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
 		if (namespace == -1) {
 			return "";
 		}
@@ -1912,7 +2416,7 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public String getAttributePrefix(int index) {
 		int offset=getAttributeOffset(index);
-		int uri=m_attributes[offset + ATTRIBUTE_IX_NAMESPACE_URI];
+		int uri=getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
 		int prefix=m_namespaces.findPrefix(uri);
 		if (prefix == -1) {
 			return "";
@@ -1922,7 +2426,7 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public String getAttributeName(int index) {
 		int offset=getAttributeOffset(index);
-		int name=m_attributes[offset + ATTRIBUTE_IX_NAME];
+		int name=getAttribute(offset + ATTRIBUTE_IX_NAME);
 		if (name == -1) {
 			return "";
 		}
@@ -1931,9 +2435,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeNameResource(int index) {
 		int offset=getAttributeOffset(index);
-		int name=m_attributes[offset + ATTRIBUTE_IX_NAME];
+		int name=getAttribute(offset + ATTRIBUTE_IX_NAME);
 		if (m_resourceIDs == null ||
-			name < 0 || name >= m_resourceIDs.length) {
+			name < 0 || name >= m_resourceIDCount) {
 			return 0;
 		}
 		return m_resourceIDs[name];
@@ -1941,22 +2445,22 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeValueType(int index) {
 		int offset=getAttributeOffset(index);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 	}
 
 	public int getAttributeValueData(int index) {
 		int offset=getAttributeOffset(index);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public String getAttributeValue(int index) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_STRING) {
-			int valueString=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+			int valueString=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 			return m_strings.getString(valueString);
 		}
-		int valueData=m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		int valueData=getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		return "";//TypedValue.coerceToString(valueType,valueData);
 	}
 
@@ -1966,9 +2470,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public float getAttributeFloatValue(int index, float defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_FLOAT) {
-			int valueData=m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			int valueData=getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 			return Float.intBitsToFloat(valueData);
 		}
 		return defaultValue;
@@ -1976,10 +2480,10 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeIntValue(int index, int defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType >= TypedValue.TYPE_FIRST_INT &&
 			valueType <= TypedValue.TYPE_LAST_INT) {
-			return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		}
 		return defaultValue;
 	}
@@ -1990,9 +2494,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeResourceValue(int index, int defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_REFERENCE) {
-			return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		}
 		return defaultValue;
 	}
@@ -2063,6 +2567,102 @@ class AXmlResourceParser implements XmlResourceParser {
 		return false;
 	}
 
+	/////////////////////////////////// string pool indices
+
+	/*
+	 * Cursor over the raw records, everything is returned as a string pool
+	 * index (see getStringPool()) or a raw word, so no strings are built.
+	 * Indices are -1 where the plain getters would return null or "".
+	 */
+
+	/**
+	 * Returns the string pool of the current document,
+	 * null before the first call to next().
+	 */
+	public StringBlock getStringPool() {
+		return getStrings();
+	}
+
+	public int getNameIndex() {
+		if (m_event != START_TAG && m_event != END_TAG) {
+			return -1;
+		}
+		return m_name;
+	}
+
+	public int getTextIndex() {
+		if (m_event != TEXT) {
+			return -1;
+		}
+		return m_name;
+	}
+
+	public int getNamespaceIndex() {
+		return m_namespaceUri;
+	}
+
+	public int getPrefixIndex() {
+		return m_namespaces.findPrefix(m_namespaceUri);
+	}
+
+	public int getNamespacePrefixIndex(int pos) {
+		return m_namespaces.getPrefix(pos);
+	}
+
+	public int getNamespaceUriIndex(int pos) {
+		return m_namespaces.getUri(pos);
+	}
+
+	public int getAttributeNamespaceIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
+	}
+
+	public int getAttributePrefixIndex(int index) {
+		return m_namespaces.findPrefix(getAttributeNamespaceIndex(index));
+	}
+
+	public int getAttributeNameIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_NAME);
+	}
+
+	/**
+	 * Returns index of the raw string value, set for TYPE_STRING values
+	 * and -1 for most others.
+	 */
+	public int getAttributeValueStringIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
+	}
+
+	public int getAttributeRawType(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
+	}
+
+	public int getAttributeRawData(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
+	}
+
+	/**
+	 * Returns position of the attribute with given name and namespace
+	 * indices, or -1. A namespace of -1 matches any namespace.
+	 */
+	public int findAttributeIndex(int namespace, int name) {
+		if (m_event != START_TAG || name == -1) {
+			return -1;
+		}
+		for (int o=0;o != m_attributeCount * ATTRIBUTE_LENGHT;o += ATTRIBUTE_LENGHT) {
+			if (name == getAttribute(o + ATTRIBUTE_IX_NAME) &&
+				(namespace == -1 || namespace == getAttribute(o + ATTRIBUTE_IX_NAMESPACE_URI))) {
+				return o / ATTRIBUTE_LENGHT;
+			}
+		}
+		return -1;
+	}
+
 	/////////////////////////////////// dummies
 
 	public void setInput(InputStream stream, String inputEncoding) throws XmlPullParserException {
@@ -2377,6 +2977,17 @@ class AXmlResourceParser implements XmlResourceParser {
 //	}
 
 	final StringBlock getStrings() {
+		if (m_strings != null) {
+			m_stringsTaken = true;
+		}
+		return m_strings;
+	}
+
+	/**
+	 * Same as getStrings() but leaves the pool to be reused by reset(),
+	 * for callers that drop the block before the next document.
+	 */
+	final StringBlock peekStrings() {
 		return m_strings;
 	}
 
@@ -2387,12 +2998,27 @@ class AXmlResourceParser implements XmlResourceParser {
 			throw new IndexOutOfBoundsException("Current event is not START_TAG.");
 		}
 		int offset=index * 5;
-		if (offset >= m_attributes.length) {
+		if (offset >= m_attributeCount * ATTRIBUTE_LENGHT) {
 			throw new IndexOutOfBoundsException("Invalid attribute index (" + index + ").");
 		}
 		return offset;
 	}
 
+	/**
+	 * Returns word at offset in the attribute array, value types already
+	 * shifted down. In lazy mode the word is read from the reader's buffer.
+	 */
+	private final int getAttribute(int offset) {
+		if (m_attributesPosition == -1) {
+			return m_attributes[offset];
+		}
+		int value=m_reader.getBuffer().getInt(m_attributesPosition + offset * 4);
+		if ((offset % ATTRIBUTE_LENGHT) == ATTRIBUTE_IX_VALUE_TYPE) {
+			value >>>= 24;
+		}
+		return value;
+	}
+
 	private final int findAttribute(String namespace, String attribute) {
 		if (m_strings == null || attribute == null) {
 			return -1;
@@ -2404,13 +3030,7 @@ class AXmlResourceParser implements XmlResourceParser {
 		int uri=(namespace != null) ?
 			m_strings.find(namespace):
 			-1;
-		for (int o=0;o != m_attributes.length;++o) {
-			if (name == m_attributes[o + ATTRIBUTE_IX_NAME] &&
-				(uri == -1 || uri == m_attributes[o + ATTRIBUTE_IX_NAMESPACE_URI])) {
-				return o / ATTRIBUTE_LENGHT;
-			}
-		}
-		return -1;
+		return findAttributeIndex(uri, name);
 	}
 
 	private final void resetEventInfo() {
@@ -2418,7 +3038,8 @@ class AXmlResourceParser implements XmlResourceParser {
 		m_lineNumber = -1;
 		m_name = -1;
 		m_namespaceUri = -1;
-		m_attributes = null;
+		m_attributeCount = 0;
+		m_attributesPosition = -1;
 		m_idAttribute = -1;
 		m_classAttribute = -1;
 		m_styleAttribute = -1;
@@ -2429,7 +3050,11 @@ class AXmlResourceParser implements XmlResourceParser {
 		if (m_strings == null) {
 			ChunkUtil.readCheckType(m_reader, CHUNK_AXML_FILE);
 			/*chunkSize*/m_reader.skipInt();
-			m_strings = StringBlock.read(m_reader);
+			m_strings = StringBlock.read(m_reader, m_recycledStrings);
+			m_recycledStrings = null;
+			if (m_strings.getCacheLimit() != m_stringCacheLimit) {
+				m_strings.setCacheLimit(m_stringCacheLimit);
+			}
 			m_namespaces.increaseDepth();
 			m_operational = true;
 		}
@@ -2468,7 +3093,11 @@ class AXmlResourceParser implements XmlResourceParser {
 				if (chunkSize < 8 || (chunkSize % 4) != 0) {
 					throw new IOException("Invalid resource ids size (" + chunkSize + ").");
 				}
-				m_resourceIDs = m_reader.readIntArray(chunkSize / 4 - 2);
+				m_resourceIDCount = chunkSize / 4 - 2;
+				if (m_resourceIDs == null || m_resourceIDs.length < m_resourceIDCount) {
+					m_resourceIDs = new int[m_resourceIDCount];
+				}
+				m_reader.readIntArray(m_resourceIDs, 0, m_resourceIDCount);
 				continue;
 			}
 
@@ -2513,10 +3142,20 @@ class AXmlResourceParser implements XmlResourceParser {
 				m_classAttribute = m_reader.readInt();
 				m_styleAttribute = (m_classAttribute >>> 16) - 1;
 				m_classAttribute = (m_classAttribute & 0xFFFF) - 1;
-				m_attributes = m_reader.readIntArray(attributeCount * ATTRIBUTE_LENGHT);
-				for (int i=ATTRIBUTE_IX_VALUE_TYPE;i < m_attributes.length;) {
-					m_attributes[i] = (m_attributes[i] >>> 24);
-					i += ATTRIBUTE_LENGHT;
+				m_attributeCount = attributeCount;
+				if (m_lazyAttributes && m_reader.getBuffer() != null) {
+					m_attributesPosition = m_reader.getPosition();
+					m_reader.skip(attributeCount * ATTRIBUTE_LENGHT * 4);
+				} else {
+					int length=attributeCount * ATTRIBUTE_LENGHT;
+					if (m_attributes == null || m_attributes.length < length) {
+						m_attributes = new int[Math.max(length, ATTRIBUTE_LENGHT * 8)];
+					}
+					m_reader.readIntArray(m_attributes, 0, length);
+					for (int i=ATTRIBUTE_IX_VALUE_TYPE;i < length;) {
+						m_attributes[i] = (m_attributes[i] >>> 24);
+						i += ATTRIBUTE_LENGHT;
+					}
 				}
 				m_namespaces.increaseDepth();
 				m_event = START_TAG;
@@ -2541,6 +3180,48 @@ class AXmlResourceParser implements XmlResourceParser {
 		}
 	}
 
+	private final void doSkipSubtree() throws IOException {
+		int level=1;
+		while (true) {
+			if (m_decreaseDepth) {
+				m_decreaseDepth = false;
+				m_namespaces.decreaseDepth();
+			}
+			int chunkType=m_reader.readInt();
+			int chunkSize=m_reader.readInt();
+			if (chunkSize < 8) {
+				throw new IOException("Invalid chunk size (" + chunkSize + ").");
+			}
+			if (chunkType == CHUNK_XML_START_TAG) {
+				level += 1;
+				m_namespaces.increaseDepth();
+			} else if (chunkType == CHUNK_XML_END_TAG) {
+				level -= 1;
+				m_decreaseDepth = true;
+				if (level == 0) {
+					resetEventInfo();
+					m_lineNumber = m_reader.readInt();
+					/*0xFFFFFFFF*/m_reader.skipInt();
+					m_namespaceUri = m_reader.readInt();
+					m_name = m_reader.readInt();
+					m_reader.skip(chunkSize - 24);
+					m_event = END_TAG;
+					return;
+				}
+			} else if (chunkType == CHUNK_XML_START_NAMESPACE) {
+				/*lineNumber*/m_reader.skipInt();
+				/*0xFFFFFFFF*/m_reader.skipInt();
+				int prefix=m_reader.readInt();
+				int uri=m_reader.readInt();
+				m_namespaces.push(prefix, uri);
+				chunkSize -= 16;
+			} else if (chunkType == CHUNK_XML_END_NAMESPACE) {
+				m_namespaces.pop();
+			}
+			m_reader.skip(chunkSize - 8);
+		}
+	}
+
 	/////////////////////////////////// data
 
 	/*
@@ -2552,7 +3233,10 @@ class AXmlResourceParser implements XmlResourceParser {
 	private boolean m_operational=false;
 
 	private StringBlock m_strings;
+	private StringBlock m_recycledStrings;
+	private boolean m_stringsTaken;
 	private int[] m_resourceIDs;
+	private int m_resourceIDCount;
 	private NamespaceStack m_namespaces=new NamespaceStack();
 
 	private boolean m_decreaseDepth;
@@ -2562,6 +3246,10 @@ class AXmlResourceParser implements XmlResourceParser {
 	private int m_name;
 	private int m_namespaceUri;
 	private int[] m_attributes;
+	private int m_attributeCount;
+	private int m_attributesPosition;
+	private boolean m_lazyAttributes;
+	private int m_stringCacheLimit=AxmlUtil.Config.stringCacheLimit;
 	private int m_idAttribute;
 	private int m_classAttribute;
 	private int m_styleAttribute;
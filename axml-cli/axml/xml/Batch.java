@@ -0,0 +1,122 @@
+package axml.xml;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs one job per file, or per index, on a ForkJoinPool. Idle workers
+ * steal halves of the remaining ranges.
+ * A failing job is recorded and does not stop the others, errors such
+ * as a StackOverflowError on a deeply nested document included.
+ */
+class Batch {
+
+	interface Job {
+		void run(Path input, Path output) throws Exception;
+	}
+
+	interface Task {
+		void run(int index) throws Exception;
+	}
+
+	/**
+	 * Runs job for every input, writing into outDir.
+	 * Returns failures by input, in input order, empty if every file
+	 * succeeded. Outputs keep the input file names, repeated names get
+	 * a "-1", "-2"... suffix in input order.
+	 */
+	public static Map<Path,Throwable> run(Collection<Path> inputs, Path outDir, int parallelism, final Job job) {
+		final Path[] in=inputs.toArray(new Path[inputs.size()]);
+		final Path[] out=outputs(in, outDir);
+		Throwable[] failures=run(in.length, parallelism, new Task() {
+				public void run(int index) throws Exception {
+					try {
+						job.run(in[index], out[index]);
+					} catch (Throwable e) {
+						try {
+							Files.deleteIfExists(out[index]);
+						} catch (IOException ignored) {
+						}
+						throw e;
+					}
+				}
+			});
+		Map<Path,Throwable> result=new LinkedHashMap<Path,Throwable>();
+		for (int i=0;i != in.length;++i) {
+			if (failures[i] != null) {
+				result.put(in[i], failures[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Runs task for indices 0 to count - 1, returns what each one threw
+	 * (null where it succeeded).
+	 */
+	public static Throwable[] run(int count, int parallelism, Task task) {
+		Throwable[] failures=new Throwable[count];
+		ForkJoinPool pool=new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new Range(task, failures, 0, count));
+		} finally {
+			pool.shutdown();
+		}
+		return failures;
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private static class Range extends RecursiveAction {
+
+		Range(Task task, Throwable[] failures, int from, int to) {
+			m_task = task;
+			m_failures = failures;
+			m_from = from;
+			m_to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (m_to - m_from > 1) {
+				int middle=(m_from + m_to) >>> 1;
+				invokeAll(new Range(m_task, m_failures, m_from, middle),
+						  new Range(m_task, m_failures, middle, m_to));
+				return;
+			}
+			for (int i=m_from;i != m_to;++i) {
+				try {
+					m_task.run(i);
+				} catch (Throwable e) {
+					m_failures[i] = e;
+				}
+			}
+		}
+
+		private final Task m_task;
+		private final Throwable[] m_failures;
+		private final int m_from;
+		private final int m_to;
+
+		private static final long serialVersionUID=1L;
+	}
+
+	private static Path[] outputs(Path[] inputs, Path outDir) {
+		Path[] outputs=new Path[inputs.length];
+		Set<String> taken=new HashSet<String>();
+		for (int i=0;i != inputs.length;++i) {
+			String name=inputs[i].getFileName().toString();
+			String unique=name;
+			for (int n=1;!taken.add(unique);++n) {
+				int dot=name.lastIndexOf('.');
+				unique = (dot <= 0) ?
+					name + "-" + n:
+					name.substring(0, dot) + "-" + n + name.substring(dot);
+			}
+			outputs[i] = outDir.resolve(unique);
+		}
+		return outputs;
+	}
+}
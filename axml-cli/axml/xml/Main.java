@@ -1,14 +1,37 @@
 package axml.xml;
 
+import java.nio.file.*;
+import java.util.*;
+
 public class Main {
 	public static void main(String[] args) {
 		try {
-			if (args[0].endsWith("d")) {
+			if (args[0].endsWith("bd") || args[0].endsWith("be")) {
+				List<Path> inputs=new ArrayList<Path>();
+				for (int i=2;i < args.length;++i) {
+					inputs.add(Paths.get(args[i]));
+				}
+				int parallelism=Runtime.getRuntime().availableProcessors();
+				Map<Path,Throwable> failures=args[0].endsWith("bd") ?
+					AxmlUtil.decodeAll(inputs, Paths.get(args[1]), parallelism):
+					AxmlUtil.encodeAll(inputs, Paths.get(args[1]), parallelism);
+				for (Map.Entry<Path,Throwable> failure : failures.entrySet()) {
+					System.out.printf("%s: %s\n", failure.getKey(), failure.getValue().toString());
+				}
+				System.out.printf("%d of %d files done.\n", inputs.size() - failures.size(), inputs.size());
+			} else if (args[0].endsWith("a")) {
+				Map<String,Throwable> failures=AxmlUtil.decodeApk(Paths.get(args[1]), Paths.get(args[2]), Runtime.getRuntime().availableProcessors());
+				for (Map.Entry<String,Throwable> failure : failures.entrySet()) {
+					System.out.printf("%s: %s\n", failure.getKey(), failure.getValue().toString());
+				}
+			} else if (args[0].endsWith("d")) {
 				AxmlUtil.decode(args[1], args[2]);
+			} else if(args[0].endsWith("j")){
+				AxmlUtil.decodeJson(args[1], args[2]);
 			} else if(args[0].endsWith("e")){
 				AxmlUtil.encodeFile(args[1], args[2]);
 			} else if(args[0].endsWith("help")){
-				System.out.printf("AxmlXml version 1.0\nTo decode binary xml use this command : [-d] <input> <output>\nTo encode xml use this command : [-e] <input> <output>\nThank you for using our tool.\n");
+				System.out.printf("AxmlXml version 1.0\nTo decode binary xml use this command : [-d] <input> <output>\nTo decode binary xml into json use this command : [-j] <input> <output>\nTo encode xml use this command : [-e] <input> <output>\nTo decode or encode many files in parallel use : [-bd|-be] <output directory> <input>...\nTo decode the xml files of an apk use this command : [-a] <apk> <output directory>\nThank you for using our tool.\n");
 			} else {
 				System.out.printf("Invalid command. Please tye --help and see how to use it.\n");
 			}
@@ -0,0 +1,198 @@
+package axml.xml;
+
+
+/**
+ * Renders typed attribute values into a reusable char buffer, the same
+ * text AxmlUtil.getAttributeValue returns but without building Strings.
+ * Dispatch goes through a table indexed by value type.
+ */
+class ValueRenderer {
+
+	/**
+	 * Renders value into getChars() and returns its length.
+	 * Returns -1 for TYPE_STRING, those have to be taken from the string pool.
+	 */
+	public int render(int type, int data) {
+		m_length = 0;
+		int kind=(type >= 0 && type < KINDS.length) ?KINDS[type]: KIND_UNKNOWN;
+		switch (kind) {
+			case KIND_STRING:
+				return -1;
+			case KIND_ATTRIBUTE:
+				append('?');
+				appendPackage(data);
+				appendHex(data, 8);
+				break;
+			case KIND_REFERENCE:
+				append('@');
+				appendPackage(data);
+				appendHex(data, 8);
+				break;
+			case KIND_FLOAT:
+				appendFloat(Float.intBitsToFloat(data));
+				break;
+			case KIND_HEX:
+				append("0x");
+				appendHex(data, 8);
+				break;
+			case KIND_BOOLEAN:
+				append(data != 0 ?"true": "false");
+				break;
+			case KIND_DIMENSION:
+				appendFloat(AxmlUtil.complexToFloat(data));
+				append(DIMENSION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK]);
+				break;
+			case KIND_FRACTION:
+				appendFloat(AxmlUtil.complexToFloat(data));
+				append(FRACTION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK]);
+				break;
+			case KIND_COLOR:
+				append('#');
+				appendHex(data, 8);
+				break;
+			case KIND_INT:
+				appendDecimal(data);
+				break;
+			default:
+				append("<0x");
+				appendHex(data, 1);
+				append(", type 0x");
+				appendHex(type, 2);
+				append('>');
+				break;
+		}
+		return m_length;
+	}
+
+	public char[] getChars() {
+		return m_chars;
+	}
+
+	/**
+	 * Returns the unit suffix of a dimension or fraction value.
+	 */
+	public static String getUnit(int type, int data) {
+		if (type == TypedValue.TYPE_FRACTION) {
+			return FRACTION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
+		}
+		return DIMENSION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private void appendPackage(int id) {
+		if (id >>> 24 == 1) {
+			append("android:");
+		}
+	}
+
+	/**
+	 * Appends data as upper case hex, padded with zeros to minDigits.
+	 */
+	private void appendHex(int data, int minDigits) {
+		int digits=8;
+		while (digits > minDigits && (data >>> ((digits - 1) * 4)) == 0) {
+			digits -= 1;
+		}
+		ensureCapacity(digits);
+		for (int shift=(digits - 1) * 4;shift >= 0;shift -= 4) {
+			m_chars[m_length++] = HEX_DIGITS[(data >>> shift) & 0xF];
+		}
+	}
+
+	private void appendDecimal(int data) {
+		long value=data;
+		if (value < 0) {
+			append('-');
+			value = -value;
+		}
+		int digits=1;
+		for (long v=value / 10;v != 0;v /= 10) {
+			digits += 1;
+		}
+		ensureCapacity(digits);
+		m_length += digits;
+		for (int i=m_length - 1;digits != 0;--digits,--i) {
+			m_chars[i] = (char)('0' + (value % 10));
+			value /= 10;
+		}
+	}
+
+	private void appendFloat(float value) {
+		// StringBuilder formats floats in place, exactly like Float.toString.
+		m_float.setLength(0);
+		m_float.append(value);
+		int length=m_float.length();
+		ensureCapacity(length);
+		m_float.getChars(0, length, m_chars, m_length);
+		m_length += length;
+	}
+
+	private void append(String s) {
+		int length=s.length();
+		ensureCapacity(length);
+		s.getChars(0, length, m_chars, m_length);
+		m_length += length;
+	}
+
+	private void append(char c) {
+		ensureCapacity(1);
+		m_chars[m_length++] = c;
+	}
+
+	private void ensureCapacity(int more) {
+		if (m_length + more <= m_chars.length) {
+			return;
+		}
+		char[] chars=new char[Math.max(m_chars.length * 2, m_length + more)];
+		System.arraycopy(m_chars, 0, chars, 0, m_length);
+		m_chars = chars;
+	}
+
+	private char[] m_chars=new char[32];
+	private int m_length;
+	private final StringBuilder m_float=new StringBuilder(16);
+
+	private static final int
+	KIND_UNKNOWN = 0,
+	KIND_STRING = 1,
+	KIND_ATTRIBUTE = 2,
+	KIND_REFERENCE = 3,
+	KIND_FLOAT = 4,
+	KIND_HEX = 5,
+	KIND_BOOLEAN = 6,
+	KIND_DIMENSION = 7,
+	KIND_FRACTION = 8,
+	KIND_COLOR = 9,
+	KIND_INT = 10;
+
+	private static final byte[] KINDS=new byte[TypedValue.TYPE_LAST_INT + 1];
+	static {
+		for (int i=TypedValue.TYPE_FIRST_INT;i <= TypedValue.TYPE_LAST_INT;++i) {
+			KINDS[i] = KIND_INT;
+		}
+		for (int i=TypedValue.TYPE_FIRST_COLOR_INT;i <= TypedValue.TYPE_LAST_COLOR_INT;++i) {
+			KINDS[i] = KIND_COLOR;
+		}
+		KINDS[TypedValue.TYPE_STRING] = KIND_STRING;
+		KINDS[TypedValue.TYPE_ATTRIBUTE] = KIND_ATTRIBUTE;
+		KINDS[TypedValue.TYPE_REFERENCE] = KIND_REFERENCE;
+		KINDS[TypedValue.TYPE_FLOAT] = KIND_FLOAT;
+		KINDS[TypedValue.TYPE_INT_HEX] = KIND_HEX;
+		KINDS[TypedValue.TYPE_INT_BOOLEAN] = KIND_BOOLEAN;
+		KINDS[TypedValue.TYPE_DIMENSION] = KIND_DIMENSION;
+		KINDS[TypedValue.TYPE_FRACTION] = KIND_FRACTION;
+	}
+
+	private static final char[] HEX_DIGITS="0123456789ABCDEF".toCharArray();
+
+	// Sized for the whole unit mask, undefined units render as nothing.
+	private static final String DIMENSION_UNITS[]={
+		"px","dip","sp","pt","in","mm","","",
+		"","","","","","","",""
+	};
+	private static final String FRACTION_UNITS[]={
+		"%","%p","","","","","","",
+		"","","","","","","",""
+	};
+}
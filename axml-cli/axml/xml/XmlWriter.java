@@ -0,0 +1,153 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+
+/**
+ * Writes the events of an AXmlResourceParser as indented xml text,
+ * appending names, prefixes and escaped values straight to the output.
+ */
+class XmlWriter {
+
+	public XmlWriter(Appendable out) {
+		m_out = out;
+	}
+
+	public void write(AXmlResourceParser parser, String comment) throws XmlPullParserException, IOException {
+		int depth=0;
+		while (true) {
+			int type=parser.next();
+			if (type == XmlPullParser.END_DOCUMENT) {
+				break;
+			}
+			switch (type) {
+				case XmlPullParser.START_DOCUMENT:
+					{
+						m_out.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+						m_out.append("<!-- ").append(comment).append(" -->\n");
+						break;
+					}
+				case XmlPullParser.START_TAG:
+					{
+						int attributeCount=parser.getAttributeCount();
+						m_out.append(indent(depth)).append('<');
+						appendPrefix(parser.getPrefix());
+						m_out.append(parser.getName());
+						if (attributeCount > 0) {
+							m_out.append('\n');
+						}
+						depth += 1;
+
+						int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
+						int namespaceCount=parser.getNamespaceCount(parser.getDepth());
+						for (int i=namespaceCountBefore;i != namespaceCount;++i) {
+							m_out.append(indent(depth)).append("xmlns:");
+							m_out.append(parser.getNamespacePrefix(i)).append("=\"");
+							appendEscaped(parser.getNamespaceUri(i));
+							m_out.append("\"\n");
+						}
+
+						for (int i=0;i != attributeCount;++i) {
+							m_out.append(indent(depth));
+							appendPrefix(parser.getAttributePrefix(i));
+							m_out.append(parser.getAttributeName(i)).append("=\"");
+							int length=m_renderer.render(parser.getAttributeValueType(i), parser.getAttributeValueData(i));
+							if (length == -1) {
+								appendEscaped(parser.getAttributeValue(i));
+							} else {
+								appendEscaped(m_renderer.getChars(), length);
+							}
+							m_out.append('"');
+							if (i != attributeCount - 1) {
+								m_out.append('\n');
+							}
+						}
+						m_out.append(attributeCount > 0 ?" >\n": ">\n");
+						break;
+					}
+				case XmlPullParser.END_TAG:
+					{
+						depth -= 1;
+						m_out.append(indent(depth)).append("</");
+						appendPrefix(parser.getPrefix());
+						m_out.append(parser.getName()).append(">\n");
+						break;
+					}
+				case XmlPullParser.TEXT:
+					{
+						m_out.append(indent(depth));
+						appendEscaped(parser.getText());
+						m_out.append('\n');
+						break;
+					}
+			}
+		}
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private void appendPrefix(String prefix) throws IOException {
+		if (prefix == null || prefix.length() == 0) {
+			return;
+		}
+		m_out.append(prefix).append(':');
+	}
+
+	private void appendEscaped(String value) throws IOException {
+		if (value == null) {
+			m_out.append("null");
+			return;
+		}
+		int start=0;
+		for (int i=0, e=value.length();i != e;++i) {
+			String entity;
+			switch (value.charAt(i)) {
+				case '&': entity = "&amp;"; break;
+				case '<': entity = "&lt;"; break;
+				case '>': entity = "&gt;"; break;
+				case '"': entity = "&quot;"; break;
+				default: continue;
+			}
+			m_out.append(value, start, i).append(entity);
+			start = i + 1;
+		}
+		m_out.append(value, start, value.length());
+	}
+
+	private void appendEscaped(char[] value, int length) throws IOException {
+		for (int i=0;i != length;++i) {
+			char c=value[i];
+			switch (c) {
+				case '&': m_out.append("&amp;"); break;
+				case '<': m_out.append("&lt;"); break;
+				case '>': m_out.append("&gt;"); break;
+				case '"': m_out.append("&quot;"); break;
+				default: m_out.append(c); break;
+			}
+		}
+	}
+
+	private String indent(int depth) {
+		if (depth >= m_indents.length) {
+			String[] indents=new String[Math.max(depth + 1, m_indents.length * 2)];
+			System.arraycopy(m_indents, 0, indents, 0, m_indents.length);
+			m_indents = indents;
+		}
+		String indent=m_indents[depth];
+		if (indent == null) {
+			StringBuilder b=new StringBuilder(depth * INDENT_STEP.length());
+			for (int i=0;i != depth;++i) {
+				b.append(INDENT_STEP);
+			}
+			indent = b.toString();
+			m_indents[depth] = indent;
+		}
+		return indent;
+	}
+
+	private final Appendable m_out;
+	private final ValueRenderer m_renderer=new ValueRenderer();
+	private String[] m_indents=new String[16];
+
+	private static final String INDENT_STEP = "   ";
+}
@@ -0,0 +1,244 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Binary xml entries of an APK or any other ZIP archive, decoded in place.
+ * The archive is memory-mapped and its central directory read directly,
+ * stored entries are parsed straight from the mapping and deflated ones
+ * are inflated as a stream, nothing is extracted to disk.
+ * Only AndroidManifest.xml and res/ xml files (except res/raw/) are listed.
+ * ZIP64 archives are not supported.
+ */
+public class AxmlArchive {
+
+	public AxmlArchive(Path archive) throws IOException {
+		m_buffer = AXmlResourceParser.map(archive).order(ByteOrder.LITTLE_ENDIAN);
+		readCentralDirectory();
+	}
+
+	/**
+	 * Returns names of the binary xml entries, in directory order.
+	 */
+	public List<String> getEntries() {
+		return Collections.unmodifiableList(m_names);
+	}
+
+	public String decode(String entry) throws XmlPullParserException, IOException {
+		StringBuilder output=new StringBuilder();
+		decode(entry, new AxmlDecoder(), output);
+		return output.toString();
+	}
+
+	/**
+	 * Decodes entry with decoder into output.
+	 */
+	public void decode(String entry, AxmlDecoder decoder, Appendable output) throws XmlPullParserException, IOException {
+		int index=m_names.indexOf(entry);
+		if (index == -1) {
+			throw new FileNotFoundException(entry);
+		}
+		decode(index, decoder, output);
+	}
+
+	/**
+	 * Decodes every entry into a file of the same relative path under
+	 * outDir, on parallelism threads that each reuse one decoder.
+	 * Returns failures by entry name (empty if there were none).
+	 */
+	public Map<String,Throwable> decodeAll(final Path outDir, int parallelism) throws IOException {
+		Files.createDirectories(outDir);
+		final ThreadLocal<AxmlDecoder> decoders=new ThreadLocal<AxmlDecoder>() {
+			@Override
+			protected AxmlDecoder initialValue() {
+				return new AxmlDecoder();
+			}
+		};
+		Throwable[] failures=Batch.run(m_names.size(), parallelism, new Batch.Task() {
+				public void run(int index) throws Exception {
+					Path output=outDir.resolve(m_names.get(index)).normalize();
+					if (!output.startsWith(outDir.normalize())) {
+						throw new IOException("Entry is outside of the output directory: " + m_names.get(index));
+					}
+					Files.createDirectories(output.getParent());
+					Writer writer=Files.newBufferedWriter(output, UTF_8);
+					try {
+						decode(index, decoders.get(), writer);
+					} catch (Throwable e) {
+						writer.close();
+						Files.deleteIfExists(output);
+						throw e;
+					} finally {
+						writer.close();
+					}
+				}
+			});
+		Map<String,Throwable> result=new LinkedHashMap<String,Throwable>();
+		for (int i=0;i != failures.length;++i) {
+			if (failures[i] != null) {
+				result.put(m_names.get(i), failures[i]);
+			}
+		}
+		return result;
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private void decode(int index, AxmlDecoder decoder, Appendable output) throws XmlPullParserException, IOException {
+		ByteBuffer data=getData(index);
+		switch (m_methods[index]) {
+			case STORED:
+				decoder.decode(data, output);
+				break;
+			case DEFLATED:
+				{
+					Inflater inflater=new Inflater(true);
+					try {
+						decoder.decode(new InflaterInputStream(new BufferInputStream(data), inflater), output);
+					} finally {
+						inflater.end();
+					}
+					break;
+				}
+			default:
+				throw new ZipException("Unsupported compression method " + m_methods[index] + ": " + m_names.get(index));
+		}
+	}
+
+	/**
+	 * Returns a view of the entry's data as stored in the archive.
+	 */
+	private ByteBuffer getData(int index) throws IOException {
+		int header=m_offsets[index];
+		if (header < 0 || header + LOCAL_HEADER_SIZE > m_buffer.limit() ||
+			m_buffer.getInt(header) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Bad local header: " + m_names.get(index));
+		}
+		int start=header + LOCAL_HEADER_SIZE +
+			(m_buffer.getShort(header + 26) & 0xFFFF) +
+			(m_buffer.getShort(header + 28) & 0xFFFF);
+		int end=start + m_sizes[index];
+		if (m_sizes[index] < 0 || end > m_buffer.limit()) {
+			throw new ZipException("Truncated entry: " + m_names.get(index));
+		}
+		ByteBuffer data=m_buffer.duplicate();
+		data.limit(end).position(start);
+		return data.slice();
+	}
+
+	private void readCentralDirectory() throws IOException {
+		int end=findEndOfCentralDirectory();
+		int count=m_buffer.getShort(end + 10) & 0xFFFF;
+		long offset=m_buffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+			throw new ZipException("ZIP64 archives are not supported.");
+		}
+		m_methods = new int[count];
+		m_offsets = new int[count];
+		m_sizes = new int[count];
+		int position=(int)offset;
+		byte[] name=new byte[256];
+		for (int i=0;i != count;++i) {
+			if (position + CENTRAL_HEADER_SIZE > m_buffer.limit() ||
+				m_buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Bad central directory entry " + i + ".");
+			}
+			int nameLength=m_buffer.getShort(position + 28) & 0xFFFF;
+			int extraLength=m_buffer.getShort(position + 30) & 0xFFFF;
+			int commentLength=m_buffer.getShort(position + 32) & 0xFFFF;
+			if (nameLength > name.length) {
+				name = new byte[nameLength];
+			}
+			ByteBuffer view=m_buffer.duplicate();
+			view.position(position + CENTRAL_HEADER_SIZE);
+			view.get(name, 0, nameLength);
+			String entry=new String(name, 0, nameLength, UTF_8);
+			if (isBinaryXml(entry)) {
+				int index=m_names.size();
+				m_methods[index] = m_buffer.getShort(position + 10) & 0xFFFF;
+				m_sizes[index] = m_buffer.getInt(position + 20);
+				m_offsets[index] = m_buffer.getInt(position + 42);
+				m_names.add(entry);
+			}
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+	}
+
+	private int findEndOfCentralDirectory() throws IOException {
+		int last=m_buffer.limit() - END_HEADER_SIZE;
+		int first=Math.max(0, last - 0xFFFF);
+		for (int position=last;position >= first;--position) {
+			if (m_buffer.getInt(position) == END_HEADER_SIGNATURE) {
+				return position;
+			}
+		}
+		throw new ZipException("Not a ZIP archive.");
+	}
+
+	private static boolean isBinaryXml(String entry) {
+		if (entry.equals("AndroidManifest.xml")) {
+			return true;
+		}
+		return entry.startsWith("res/") &&
+			!entry.startsWith("res/raw/") &&
+			entry.endsWith(".xml");
+	}
+
+	/**
+	 * Reads a buffer from its position to its limit.
+	 */
+	private static class BufferInputStream extends InputStream {
+
+		BufferInputStream(ByteBuffer buffer) {
+			m_buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return m_buffer.hasRemaining() ?(m_buffer.get() & 0xFF): -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!m_buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, m_buffer.remaining());
+			m_buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public int available() {
+			return m_buffer.remaining();
+		}
+
+		private final ByteBuffer m_buffer;
+	}
+
+	private final ByteBuffer m_buffer;
+	private final List<String> m_names=new ArrayList<String>();
+	private int[] m_methods;
+	private int[] m_offsets;
+	private int[] m_sizes;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int
+	STORED = 0,
+	DEFLATED = 8;
+
+	private static final int
+	LOCAL_HEADER_SIGNATURE = 0x04034b50,
+	LOCAL_HEADER_SIZE = 30,
+	CENTRAL_HEADER_SIGNATURE = 0x02014b50,
+	CENTRAL_HEADER_SIZE = 46,
+	END_HEADER_SIGNATURE = 0x06054b50,
+	END_HEADER_SIZE = 22;
+}
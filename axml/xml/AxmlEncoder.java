@@ -0,0 +1,139 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Encodes xml text into binary xml in two passes over the input, without
+ * building a tree of the document.
+ * The first pass collects the string pool and adds up the node sizes, the
+ * second writes each node as soon as it is read. Memory holds the strings
+ * and the open elements only, so documents of any size can be encoded.
+ * Output is the same as AxmlUtil.encode gives.
+ * A single encoder is not thread-safe, but can be reused.
+ */
+public class AxmlEncoder {
+
+	public AxmlEncoder() throws XmlPullParserException {
+		XmlPullParserFactory f=XmlPullParserFactory.newInstance();
+		f.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		m_parser = f.newPullParser();
+	}
+
+	/**
+	 * Encodes input into output. Output is flushed but left open.
+	 */
+	public void encode(Path input, OutputStream output) throws XmlPullParserException, IOException {
+		XmlChunk root=new XmlChunk();
+		int nodesSize=collect(input, root);
+		root.header.size = root.header.headerSize + root.stringPool.calc() + root.resourceMap.calc() + nodesSize;
+
+		IntWriter w=new IntWriter(output);
+		root.header.write(w);
+		root.stringPool.write(w);
+		root.resourceMap.write(w);
+		writeNodes(input, root, w);
+		w.flush();
+	}
+
+	public void encode(Path input, Path output) throws XmlPullParserException, IOException {
+		OutputStream stream=Files.newOutputStream(output);
+		try {
+			encode(input, stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	///////////////////////////////////////////// implementation
+
+	/**
+	 * First pass, adds every string to the pool of root and returns the
+	 * size of the node chunks.
+	 */
+	private int collect(Path input, XmlChunk root) throws XmlPullParserException, IOException {
+		Set<String> values=new LinkedHashSet<String>();
+		int size=0;
+		InputStream in=Files.newInputStream(input);
+		try {
+			XmlPullParser p=m_parser;
+			p.setInput(in, "UTF-8");
+			for (int i=p.getEventType();i != XmlPullParser.END_DOCUMENT;i = p.next()) {
+				if (i != XmlPullParser.START_TAG) {
+					continue;
+				}
+				StartTagChunk tag=new StartTagChunk(root, p);
+				for (AttrChunk a:tag.attrs) {
+					a.value.parse();
+					String value=a.value.getString();
+					if (value != null) {
+						values.add(value);
+					}
+				}
+				size += START_TAG_SIZE + ATTRIBUTE_SIZE * tag.attrs.size() + END_TAG_SIZE +
+					NAMESPACE_SIZE * 2 * tag.startNameSpace.size();
+			}
+		} finally {
+			in.close();
+		}
+		// String values follow all the names, as when the tree is built first.
+		for (String value:values) {
+			root.stringPool.addString(value);
+		}
+		return size;
+	}
+
+	/**
+	 * Second pass, the string pool is laid out and ignores the strings
+	 * the chunks add again.
+	 */
+	private void writeNodes(Path input, XmlChunk root, IntWriter w) throws XmlPullParserException, IOException {
+		List<StartTagChunk> open=new ArrayList<StartTagChunk>();
+		InputStream in=Files.newInputStream(input);
+		try {
+			XmlPullParser p=m_parser;
+			p.setInput(in, "UTF-8");
+			for (int i=p.getEventType();i != XmlPullParser.END_DOCUMENT;i = p.next()) {
+				switch (i) {
+					case XmlPullParser.START_TAG:
+						{
+							StartTagChunk tag=new StartTagChunk(root, p);
+							tag.header.lineNo = p.getLineNumber();
+							for (StartNameSpaceChunk c:tag.startNameSpace) {
+								c.write(w);
+							}
+							tag.write(w);
+							open.add(tag);
+							break;
+						}
+					case XmlPullParser.END_TAG:
+						{
+							StartTagChunk tag=open.remove(open.size() - 1);
+							EndTagChunk end=new EndTagChunk(root, tag);
+							end.header.lineNo = tag.header.lineNo;
+							end.write(w);
+							for (StartNameSpaceChunk c:tag.startNameSpace) {
+								new EndNameSpaceChunk(root, c).write(w);
+							}
+							break;
+						}
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private final XmlPullParser m_parser;
+
+	/*
+	 * Node chunk sizes, fixed but for the number of attributes.
+	 */
+	private static final int
+	START_TAG_SIZE = 36,
+	ATTRIBUTE_SIZE = 20,
+	END_TAG_SIZE = 24,
+	NAMESPACE_SIZE = 0x18;
+}
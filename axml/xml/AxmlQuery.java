@@ -0,0 +1,231 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Extracts selected attribute values from binary xml without decoding
+ * the whole document.
+ * Selectors are element paths from the root followed by an attribute
+ * name, like "manifest/uses-sdk@minSdkVersion". A path step of "*" matches
+ * any element, attributes match by name in any namespace.
+ * Before the first element, every name in the selectors is resolved to
+ * string pool indices, elements are then matched by index alone. Subtrees
+ * no selector can reach are skipped, and reading stops as soon as every
+ * selector is satisfied.
+ */
+public class AxmlQuery {
+
+	public AxmlQuery() {
+	}
+
+	/**
+	 * Adds a selector which is satisfied by its first match.
+	 * Returns the selector id to pass to Result.
+	 */
+	public int first(String selector) {
+		return add(selector, false);
+	}
+
+	/**
+	 * Adds a selector which collects every match.
+	 * Returns the selector id to pass to Result.
+	 */
+	public int all(String selector) {
+		return add(selector, true);
+	}
+
+	public Result run(ByteBuffer input) throws XmlPullParserException, IOException {
+		if (m_parser == null) {
+			m_parser = new AXmlResourceParser();
+		}
+		m_parser.reset(input);
+		return run(m_parser);
+	}
+
+	/**
+	 * Runs the query over a freshly opened parser. The parser is left
+	 * wherever the query stopped reading.
+	 */
+	public Result run(AXmlResourceParser parser) throws XmlPullParserException, IOException {
+		int count=m_selectors.size();
+		Result result=new Result(count);
+		int[] matched=new int[count];
+		boolean[] finished=new boolean[count];
+		int unfinished=count;
+		int[] poolNames=null;
+		while (unfinished != 0) {
+			int type=parser.next();
+			if (type == XmlPullParser.END_DOCUMENT) {
+				break;
+			}
+			if (type == XmlPullParser.START_DOCUMENT) {
+				poolNames = compile(parser.peekStrings());
+				continue;
+			}
+			if (type == XmlPullParser.END_TAG) {
+				leave(matched, parser.getDepth());
+				continue;
+			}
+			if (type != XmlPullParser.START_TAG) {
+				continue;
+			}
+			int depth=parser.getDepth();
+			int name=poolName(poolNames, parser.getNameIndex());
+			boolean descend=false;
+			for (int s=0;s != count;++s) {
+				Selector selector=m_selectors.get(s);
+				if (finished[s] || matched[s] != depth - 1 || depth > selector.path.length) {
+					continue;
+				}
+				int step=selector.path[depth - 1];
+				if (step != WILDCARD && step != name) {
+					continue;
+				}
+				matched[s] = depth;
+				if (depth != selector.path.length) {
+					descend = true;
+					continue;
+				}
+				int index=findAttribute(parser, poolNames, selector.attribute);
+				if (index == -1) {
+					continue;
+				}
+				result.m_values.get(s).add(AxmlUtil.getAttributeValue(parser, index, m_renderer));
+				if (!selector.all) {
+					finished[s] = true;
+					unfinished -= 1;
+				}
+			}
+			if (!descend && unfinished != 0) {
+				// No selector goes below this element.
+				parser.skipSubtree();
+				leave(matched, depth);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Values collected by a query, in document order.
+	 */
+	public static class Result {
+
+		/**
+		 * Returns the first value matched by selector, or null.
+		 */
+		public String get(int selector) {
+			List<String> values=m_values.get(selector);
+			return values.isEmpty() ?null: values.get(0);
+		}
+
+		public List<String> getAll(int selector) {
+			return Collections.unmodifiableList(m_values.get(selector));
+		}
+
+		///////////////////////////////// implementation
+
+		private Result(int count) {
+			m_values = new ArrayList<List<String>>(count);
+			for (int i=0;i != count;++i) {
+				m_values.add(new ArrayList<String>(1));
+			}
+		}
+
+		private final List<List<String>> m_values;
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private static class Selector {
+		int[] path;
+		int attribute;
+		boolean all;
+	}
+
+	private int add(String selector, boolean all) {
+		int at=selector.lastIndexOf('@');
+		if (at == -1 || at == selector.length() - 1) {
+			throw new IllegalArgumentException("Selector must end with @attribute: " + selector);
+		}
+		String path=selector.substring(0, at);
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		if (path.length() == 0) {
+			throw new IllegalArgumentException("Selector has no element path: " + selector);
+		}
+		String[] steps=path.split("/");
+		Selector compiled=new Selector();
+		compiled.path = new int[steps.length];
+		for (int i=0;i != steps.length;++i) {
+			compiled.path[i] = steps[i].equals("*") ?WILDCARD: nameId(steps[i]);
+		}
+		compiled.attribute = nameId(selector.substring(at + 1));
+		compiled.all = all;
+		m_selectors.add(compiled);
+		return m_selectors.size() - 1;
+	}
+
+	private int nameId(String name) {
+		Integer id=m_nameIds.get(name);
+		if (id == null) {
+			id = m_nameIds.size();
+			m_nameIds.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Maps every string pool index to the id of the selector name it
+	 * spells, or -1. Walks the pool once, so duplicate strings map too.
+	 */
+	private int[] compile(StringBlock strings) {
+		int count=(strings == null) ?0: strings.getCount();
+		if (m_poolNames.length < count) {
+			m_poolNames = new int[count];
+		}
+		for (int i=0;i != count;++i) {
+			Integer id=m_nameIds.get(strings.getString(i));
+			m_poolNames[i] = (id == null) ?-1: id;
+		}
+		return m_poolNames;
+	}
+
+	/**
+	 * Drops matches of the element at depth which is being left.
+	 */
+	private static void leave(int[] matched, int depth) {
+		for (int s=0;s != matched.length;++s) {
+			if (matched[s] >= depth) {
+				matched[s] = depth - 1;
+			}
+		}
+	}
+
+	private static int poolName(int[] poolNames, int index) {
+		if (poolNames == null || index < 0 || index >= poolNames.length) {
+			return -1;
+		}
+		return poolNames[index];
+	}
+
+	private static int findAttribute(AXmlResourceParser parser, int[] poolNames, int name) {
+		for (int i=0, e=parser.getAttributeCount();i != e;++i) {
+			if (poolName(poolNames, parser.getAttributeNameIndex(i)) == name) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private final List<Selector> m_selectors=new ArrayList<Selector>();
+	private final HashMap<String,Integer> m_nameIds=new HashMap<String,Integer>();
+	private int[] m_poolNames=new int[0];
+	private AXmlResourceParser m_parser;
+	private final ValueRenderer m_renderer=new ValueRenderer();
+
+	private static final int WILDCARD = -2;
+}
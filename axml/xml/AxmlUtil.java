@@ -2,21 +2,25 @@ package axml.xml;
 
 import org.xmlpull.v1.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
 import java.util.*;
 import android.util.*;
 
 public class AxmlUtil {
 	public static class Config {
         public static StringPoolChunk.Encoding encoding= StringPoolChunk.Encoding.UNICODE;
+        public static StringPoolChunk.Order stringOrder= StringPoolChunk.Order.FIRST_SEEN;
         public static int defaultReferenceRadix=16;
+        // Decoded strings cached per string pool, -1 for no limit, 0 to disable.
+        public static int stringCacheLimit=-1;
     }
 
+    /**
+     * Streams the encoded file to output, see AxmlEncoder.
+     */
     public static void encodeFile(String input, String output) throws XmlPullParserException, IOException {
-		XmlPullParserFactory f = XmlPullParserFactory.newInstance();
-		f.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
-		XmlPullParser p = f.newPullParser();
-		p.setInput(new FileInputStream(input), "UTF-8");
-		new FileOutputStream(output).write(encode(p));
+		new AxmlEncoder().encode(Paths.get(input), Paths.get(output));
     }
 	
 	public static byte[] encodeFile(String input) throws XmlPullParserException, IOException {
@@ -36,6 +40,28 @@ public class AxmlUtil {
     }
 
     public static byte[] encode(XmlPullParser p) throws XmlPullParserException, IOException {
+		XmlChunk chunk=build(p);
+		byte[] output=new byte[chunk.calc()];
+		chunk.write(new IntWriter(ByteBuffer.wrap(output).order(ByteOrder.LITTLE_ENDIAN)));
+		return output;
+    }
+
+	/**
+	 * Encodes into output from its position on, and moves the position
+	 * past the document. Throws BufferOverflowException, without writing
+	 * anything, if output has too little room left.
+	 */
+    public static void encode(XmlPullParser p, ByteBuffer output) throws XmlPullParserException, IOException {
+		XmlChunk chunk=build(p);
+		if (output.remaining() < chunk.calc()) {
+			throw new BufferOverflowException();
+		}
+		ByteBuffer view=output.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		chunk.write(new IntWriter(view));
+		output.position(view.position());
+    }
+
+	private static XmlChunk build(XmlPullParser p) throws XmlPullParserException, IOException {
 		XmlChunk chunk = new XmlChunk();
 		TagChunk current = null;
 		for (int i=p.getEventType();i != XmlPullParser.END_DOCUMENT;i = p.next()) {
@@ -56,258 +82,88 @@ public class AxmlUtil {
 
 			}
 		}
-		ByteArrayOutputStream os=new ByteArrayOutputStream();
-		IntWriter w=new IntWriter(os);
-		chunk.write(w);
-		w.close();
-		return os.toByteArray();
-    }
-
-	public static PrintStream out;
-
-	public static StringBuilder decoded;
+		return chunk;
+	}
 
 	public static void decode(String inf, String output) throws XmlPullParserException, IOException {
-		out = new PrintStream(new File(output));
-		AXmlResourceParser parser=new AXmlResourceParser();
-		parser.open(new FileInputStream(inf));
-		StringBuilder indent = new StringBuilder(10);
-		final String indentStep = "   ";
-		while (true) {
-			int type = parser.next();
-			if (type == XmlPullParser.END_DOCUMENT) {
-				break;
-			}
-			switch (type) {
-				case XmlPullParser.START_DOCUMENT:
-					{
-						log("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
-						log("<!-- Decompiled with AxmlXml 1.0 -->");
-						break;
-					}
-				case XmlPullParser.START_TAG:
-					{
-						if (parser.getAttributeCount() <= 0) {
-							logs("%s<%s%s", indent,
-								 getNamespacePrefix(parser.getPrefix()), parser.getName());
-
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log("%sxmlns:%s=\"%s\"",
-									indent,
-									parser.getNamespacePrefix(i),
-									parser.getNamespaceUri(i));
-							}
-							log(">");
-						} else {
-							log("%s<%s%s", indent,
-								getNamespacePrefix(parser.getPrefix()), parser.getName());
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log("%sxmlns:%s=\"%s\"",
-									indent,
-									parser.getNamespacePrefix(i),
-									parser.getNamespaceUri(i));
-							}
-
-							for (int i=0;i != parser.getAttributeCount();++i) {
-								if (i == (parser.getAttributeCount() - 1)) {
-									logs("%s%s%s=\"%s\"", indent,
-										 getNamespacePrefix(parser.getAttributePrefix(i)),
-										 parser.getAttributeName(i),
-										 getAttributeValue(parser, i));
-								} else {
-									log("%s%s%s=\"%s\"", indent,
-										getNamespacePrefix(parser.getAttributePrefix(i)),
-										parser.getAttributeName(i),
-										getAttributeValue(parser, i));
-								}
-							}
-							log(" >");
-						}
-						break;
-					}
-				case XmlPullParser.END_TAG:
-					{
-						indent.setLength(indent.length() - indentStep.length());
-						log("%s</%s%s>", indent,
-							getNamespacePrefix(parser.getPrefix()),
-							parser.getName());
-						break;
-					}
-				case XmlPullParser.TEXT:
-					{
-						log("%s%s", indent, parser.getText());
-						break;
-					}
-			}
-		}
-		out.close();
+		new AxmlDecoder().decode(Paths.get(inf), Paths.get(output));
 	}
 
-    public static String decode(InputStream inf) throws XmlPullParserException, IOException {
-		decoded = new StringBuilder();
-		AXmlResourceParser parser=new AXmlResourceParser();
-		parser.open(inf);
-		StringBuilder indent = new StringBuilder(10);
-		final String indentStep = "   ";
-		while (true) {
-			int type=parser.next();
-			if (type == XmlPullParser.END_DOCUMENT) {
-				break;
-			}
-			switch (type) {
-				case XmlPullParser.START_DOCUMENT:
-					{
-						log1("<?xml version=\"1.0\" encoding=\"utf-8\"?>");
-						log1("<!-- Decompiled with BotX Patcher -->");
-						break;
-					}
-				case XmlPullParser.START_TAG:
-					{
-						if (parser.getAttributeCount() <= 0) {
-							logs1("%s<%s%s", indent,
-								  getNamespacePrefix(parser.getPrefix()), parser.getName());
-
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log1("%sxmlns:%s=\"%s\"",
-									 indent,
-									 parser.getNamespacePrefix(i),
-									 parser.getNamespaceUri(i));
-							}
-							log1(">");
-						} else {
-							log1("%s<%s%s", indent,
-								 getNamespacePrefix(parser.getPrefix()), parser.getName());
-							indent.append(indentStep);
-
-							int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
-							int namespaceCount=parser.getNamespaceCount(parser.getDepth());
-
-							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
-								log1("%sxmlns:%s=\"%s\"",
-									 indent,
-									 parser.getNamespacePrefix(i),
-									 parser.getNamespaceUri(i));
-							}
+	public static void decodeJson(String inf, String output) throws XmlPullParserException, IOException {
+		new AxmlDecoder().decodeJson(Paths.get(inf), Paths.get(output));
+	}
 
-							for (int i=0;i != parser.getAttributeCount();++i) {
-								if (i == (parser.getAttributeCount() - 1)) {
-									logs1("%s%s%s=\"%s\"", indent,
-										  getNamespacePrefix(parser.getAttributePrefix(i)),
-										  parser.getAttributeName(i),
-										  getAttributeValue(parser, i));
-								} else {
-									log1("%s%s%s=\"%s\"", indent,
-										 getNamespacePrefix(parser.getAttributePrefix(i)),
-										 parser.getAttributeName(i),
-										 getAttributeValue(parser, i));
-								}
-							}
-							log1(" >");
-						}
-						break;
-					}
-				case XmlPullParser.END_TAG:
-					{
-						indent.setLength(indent.length() - indentStep.length());
-						log1("%s</%s%s>", indent,
-							 getNamespacePrefix(parser.getPrefix()),
-							 parser.getName());
-						break;
-					}
-				case XmlPullParser.TEXT:
-					{
-						log1("%s%s", indent, parser.getText());
-						break;
-					}
+	/**
+	 * Decodes every input into a file of the same name in outDir, on
+	 * parallelism threads that each reuse one decoder.
+	 * A file that fails is reported and the others still get decoded,
+	 * returns the failures by input (empty if there were none).
+	 */
+	public static Map<Path,Throwable> decodeAll(Collection<Path> inputs, Path outDir, int parallelism) throws IOException {
+		Files.createDirectories(outDir);
+		final ThreadLocal<AxmlDecoder> decoders=new ThreadLocal<AxmlDecoder>() {
+			@Override
+			protected AxmlDecoder initialValue() {
+				return new AxmlDecoder();
 			}
-		}
-		return decoded.toString();
+		};
+		return Batch.run(inputs, outDir, parallelism, new Batch.Job() {
+				public void run(Path input, Path output) throws Exception {
+					decoders.get().decode(input, output);
+				}
+			});
 	}
 
-	private static String getNamespacePrefix(String prefix) {
-		if (prefix == null || prefix.length() == 0) {
-			return "";
-		}
-		return prefix + ":";
+	/**
+	 * Decodes AndroidManifest.xml and the res/ xml files of an APK into
+	 * outDir, see AxmlArchive.decodeAll.
+	 */
+	public static Map<String,Throwable> decodeApk(Path apk, Path outDir, int parallelism) throws IOException {
+		return new AxmlArchive(apk).decodeAll(outDir, parallelism);
 	}
 
-	private static String getAttributeValue(AXmlResourceParser parser, int index) {
-		int type=parser.getAttributeValueType(index);
-		int data=parser.getAttributeValueData(index);
-		if (type == TypedValue.TYPE_STRING) {
-			return parser.getAttributeValue(index);
-		}
-		if (type == TypedValue.TYPE_ATTRIBUTE) {
-			return String.format("?%s%08X", getPackage(data), data);
-		}
-		if (type == TypedValue.TYPE_REFERENCE) {
-			return String.format("@%s%08X", getPackage(data), data);
-		}
-		if (type == TypedValue.TYPE_FLOAT) {
-			return String.valueOf(Float.intBitsToFloat(data));
-		}
-		if (type == TypedValue.TYPE_INT_HEX) {
-			return String.format("0x%08X", data);
-		}
-		if (type == TypedValue.TYPE_INT_BOOLEAN) {
-			return data != 0 ?"true": "false";
-		}
-		if (type == TypedValue.TYPE_DIMENSION) {
-			return Float.toString(complexToFloat(data)) +
-				DIMENSION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
-		}
-		if (type == TypedValue.TYPE_FRACTION) {
-			return Float.toString(complexToFloat(data)) +
-				FRACTION_UNITS[data & TypedValue.COMPLEX_UNIT_MASK];
-		}
-		if (type >= TypedValue.TYPE_FIRST_COLOR_INT && type <= TypedValue.TYPE_LAST_COLOR_INT) {
-			return String.format("#%08X", data);
-		}
-		if (type >= TypedValue.TYPE_FIRST_INT && type <= TypedValue.TYPE_LAST_INT) {
-			return String.valueOf(data);
-		}
-		return String.format("<0x%X, type 0x%02X>", data, type);
+	/**
+	 * Encodes every input into outDir like decodeAll, each thread
+	 * reusing one encoder.
+	 */
+	public static Map<Path,Throwable> encodeAll(Collection<Path> inputs, Path outDir, int parallelism) throws IOException {
+		Files.createDirectories(outDir);
+		final ThreadLocal<AxmlEncoder> encoders=new ThreadLocal<AxmlEncoder>();
+		return Batch.run(inputs, outDir, parallelism, new Batch.Job() {
+				public void run(Path input, Path output) throws Exception {
+					AxmlEncoder encoder=encoders.get();
+					if (encoder == null) {
+						encoder = new AxmlEncoder();
+						encoders.set(encoder);
+					}
+					encoder.encode(input, output);
+				}
+			});
 	}
 
-	private static String getPackage(int id) {
-		if (id >>> 24 == 1) {
-			return "android:";
-		}
-		return "";
+    public static void decodeJson(InputStream inf, OutputStream output) throws XmlPullParserException, IOException {
+		new AxmlDecoder().decodeJson(inf, output);
 	}
 
-	private static void log(String format, Object...arguments) {
-		out.printf(format, arguments);
-		out.println();
+    public static String decode(InputStream inf) throws XmlPullParserException, IOException {
+		return new AxmlDecoder().setComment("Decompiled with BotX Patcher").decode(inf);
 	}
 
-    private static void log1(String format, Object...arguments) {
-		decoded.append(String.format(format, arguments));
-		decoded.append("\n");
-    }
-
-	private static void logs(String format, Object...arguments) {
-		out.printf(format, arguments);
+	/**
+	 * Same as decode(InputStream), but returns the stored text when cache
+	 * already holds a document with identical bytes.
+	 */
+    public static String decode(InputStream inf, DecodeCache cache) throws XmlPullParserException, IOException {
+		return new AxmlDecoder().setComment("Decompiled with BotX Patcher").setCache(cache).decode(inf);
 	}
 
-    private static void logs1(String format, Object...arguments) {
-		decoded.append(String.format(format, arguments));
-    }
+	static String getAttributeValue(AXmlResourceParser parser, int index, ValueRenderer renderer) {
+		int length=renderer.render(parser.getAttributeValueType(index), parser.getAttributeValueData(index));
+		if (length == -1) {
+			return parser.getAttributeValue(index);
+		}
+		return new String(renderer.getChars(), 0, length);
+	}
 
 	/////////////////////////////////// ILLEGAL STUFF, DONT LOOK :)
 
@@ -318,11 +174,5 @@ public class AxmlUtil {
 	private static final float RADIX_MULTS[]={
 		0.00390625F,3.051758E-005F,1.192093E-007F,4.656613E-010F
 	};
-	private static final String DIMENSION_UNITS[]={
-		"px","dip","sp","pt","in","mm","",""
-	};
-	private static final String FRACTION_UNITS[]={
-		"%","%p","","","","","",""
-	};
 }
 
@@ -1,10 +1,8 @@
 package axml.xml;
 
-import java.lang.reflect.*;
-import java.lang.reflect.*;
 import java.util.*;
 import java.io.*;
-import java.util.regex.*;
+import java.nio.*;
 import org.xmlpull.v1.*;
 import android.text.*;
 import android.graphics.*;
@@ -68,20 +66,12 @@ public abstract class Chunk<H extends Chunk.Header> {
     }
 
 
+    /**
+     * Subclasses create their header right after calling this,
+     * before anything else touches it.
+     */
     public Chunk(Chunk parent) {
         this.parent = parent;
-        try {
-            Class<H> t = (Class<H>)((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
-            Constructor[] cs=t.getConstructors();
-            for (Constructor c:cs) {
-                Type[] ts=c.getParameterTypes();
-                if (ts.length == 1 && Chunk.class.isAssignableFrom((Class<?>)ts[0]))
-                    header = (H) c.newInstance(this);
-            }
-        } catch (Exception e) {
-
-            throw new RuntimeException(e);
-        }
     }
 
     protected Context context;
@@ -178,6 +168,7 @@ class EndNameSpaceChunk extends Chunk<EndNameSpaceChunk.H> {
     public StartNameSpaceChunk start;
     public EndNameSpaceChunk(Chunk parent, StartNameSpaceChunk start) {
 		super(parent);
+		header = new H();
 		this.start = start;
     }
     @Override
@@ -198,6 +189,7 @@ class EndTagChunk extends Chunk<EndTagChunk.H> {
     public StartTagChunk start;
     public EndTagChunk(Chunk parent, StartTagChunk start) {
 		super(parent);
+		header = new H();
 		this.start = start;
     }
 
@@ -224,27 +216,24 @@ class ResourceMapChunk extends Chunk<ResourceMapChunk.H> {
 
     public ResourceMapChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
-    private LinkedList<Integer> ids;
+    private int[] ids;
 
     @Override
     public void preWrite() {
 		List<StringPoolChunk.RawString> rss=stringPool().rawStrings;
-		ids = new LinkedList<Integer>();
-		for (StringPoolChunk.RawString r:rss) {
-			if (r.origin.id >= 0) {
-				ids.add(r.origin.id);
-			} else {
-				break;
-			}
-		}
-		header.size = ids.size() * 4 + header.headerSize;
+		int count=0;
+		while (count < rss.size() && rss.get(count).origin.id >= 0) ++count;
+		ids = new int[count];
+		for (int i=0;i < count;++i) ids[i] = rss.get(i).origin.id;
+		header.size = ids.length * 4 + header.headerSize;
     }
 
     @Override
     public void writeEx(IntWriter w) throws IOException {
-		for (int i:ids) w.write(i);
+		w.write(ids);
     }
 }
 
@@ -252,6 +241,7 @@ class StartNameSpaceChunk extends Chunk<StartNameSpaceChunk.H> {
 
     public StartNameSpaceChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
     public class H extends Chunk.NodeHeader {
@@ -292,6 +282,7 @@ class StartTagChunk extends Chunk<StartTagChunk.H> {
 
     public StartTagChunk(Chunk parent, XmlPullParser p) throws XmlPullParserException {
 		super(parent);
+		header = new H();
 		name = p.getName();
 		stringPool().addString(name);
 		prefix = p.getPrefix();
@@ -355,6 +346,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 
     public StringPoolChunk(Chunk parent) {
 		super(parent);
+		header = new H();
     }
 
     public class H extends Chunk.Header {
@@ -392,7 +384,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 			if (cdata != null) {
 				return (cdata.length * 2 + 4) & 2;
 			} else {
-				//return (4-((bdata.length+3)&3))&3;
+				// UTF-8 data is padded once, after the last string.
 				return 0;
 			}
         }
@@ -401,23 +393,32 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 			if (cdata != null) {
 				return cdata.length * 2 + 4 + padding();
 			} else {
-				return bdata.length + 3 + padding();
+				return lengthSize(length()) + lengthSize(bdata.length) + bdata.length + 1 + padding();
 			}
         }
 
+        static int lengthSize(int length) {
+			return length > 0x7F ? 2 : 1;
+        }
+
+        static void writeLength(IntWriter w, int length) throws IOException {
+			if (length > 0x7F) w.write((byte)((length >>> 8) | 0x80));
+			w.write((byte)length);
+        }
+
         void write(IntWriter w) throws IOException {
 			if (cdata != null) {
 				int pos=w.getPos();
 				w.write((short)length());
-				for (char c:cdata) w.write(c);
+				w.write(cdata);
 				w.write((short)0);
 				if (padding() == 2)w.write((short)0);
 				assert size() == w.getPos() - pos:size() + "," + (w.getPos() - pos);
 			} else {
 				int pos=w.getPos();
-				w.write((byte)length());
-				w.write((byte)bdata.length);
-				for (byte c:bdata) w.write(c);
+				writeLength(w, length());
+				writeLength(w, bdata.length);
+				w.write(bdata);
 				w.write((byte)0);
 				int p=padding();
 				for (int i=0;i < p;++i) w.write((byte)0);
@@ -427,11 +428,20 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
     }
 
     public enum Encoding {UNICODE,UTF8}
+    /**
+     * Order of strings without a resource id, which always follow the
+     * ones with an id. Both give identical bytes for identical input.
+     */
+    public enum Order {FIRST_SEEN,SORTED}
     public int[] stringsOffset;
     public int[] stylesOffset;
+    private int stringsPadding;
     public ArrayList<RawString> rawStrings;
+    private HashMap<String,Integer> index;
+    private int[] sameString;
 
     public Encoding encoding = AxmlUtil.Config.encoding;
+    public Order order = AxmlUtil.Config.stringOrder;
 
     @Override
     public void preWrite() {
@@ -468,13 +478,19 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 					int r = rhs.origin.id;
 					if (l == -1) l = Integer.MAX_VALUE;
 					if (r == -1) r = Integer.MAX_VALUE;
-					return l - r;
+					if (l != r) return l < r ? -1 : 1;
+					// The sort is stable, ties otherwise stay in first seen order.
+					if (order == Order.SORTED) return lhs.origin.string.compareTo(rhs.origin.string);
+					return 0;
 				}
 			});
 		for (RawString r:rawStrings) {
 			offsets.add(off);
 			off += r.size();
 		}
+		// String data must end on a 4 byte boundary, only UTF-8 needs it.
+		stringsPadding = (4 - (off & 3)) & 3;
+		off += stringsPadding;
 		header.stringCount = rawStrings.size();
 		header.styleCount = 0;
 		header.size = off + header.headerSize + header.stringCount * 4 + header.styleCount * 4;
@@ -485,13 +501,30 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 		i = 0;
 		for (int x:offsets) stringsOffset[i++] = x;
 		stylesOffset = new int[0];
+		buildIndex();
+    }
+
+    /**
+     * Maps each string to its first position in rawStrings, and chains
+     * later positions of the same string through sameString, so
+     * stringIndex() does not have to scan the pool.
+     */
+    private void buildIndex() {
+		int l=rawStrings.size();
+		index = new HashMap<String,Integer>(l * 4 / 3 + 1);
+		sameString = new int[l];
+		for (int i=l - 1;i >= 0;--i) {
+			Integer next=index.put(rawStrings.get(i).origin.string, i);
+			sameString[i] = next == null ?-1: next;
+		}
     }
 
     @Override
     public void writeEx(IntWriter w) throws IOException {
-		for (int i:stringsOffset) w.write(i);
-		for (int i:stylesOffset) w.write(i);
+		w.write(stringsOffset);
+		w.write(stylesOffset);
 		for (RawString r:rawStrings) r.write(w);
+		for (int i=0;i < stringsPadding;++i) w.write((byte)0);
 		//TODO styles;
     }
 
@@ -526,11 +559,17 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
         }
     }
 
-    private HashMap<String,LinkedList<StringItem>> map=new HashMap<String,LinkedList<StringItem>>();
+    // Linked, so strings come out in the order they were added.
+    private LinkedHashMap<String,LinkedList<StringItem>> map=new LinkedHashMap<String,LinkedList<StringItem>>();
     private String preHandleString(String s) {
 		return s;
     }
+    /**
+     * Once the pool is laid out strings can no longer be added, calls
+     * after that are ignored.
+     */
     public void addString(String s) {
+		if (rawStrings != null) return;
 		s = preHandleString(s);
 		LinkedList<StringItem> list=map.get(s);
 		if (list == null) map.put(s, list = new LinkedList<StringItem>());
@@ -540,6 +579,7 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
     }
 
     public void addString(String namespace, String s) {
+		if (rawStrings != null) return;
 		namespace = preHandleString(namespace);
 		s = preHandleString(s);
 		LinkedList<StringItem> list=map.get(s);
@@ -557,10 +597,12 @@ class StringPoolChunk extends Chunk<StringPoolChunk.H> {
 		namespace = preHandleString(namespace);
 		s = preHandleString(s);
 		if (TextUtils.isEmpty(s)) return -1;
-		int l=rawStrings.size();
-		for (int i=0;i < l;++i) {
-			StringItem item=rawStrings.get(i).origin;
-			if (s.equals(item.string) && (TextUtils.isEmpty(namespace) || namespace.equals(item.namespace))) return i;
+		Integer first=index.get(s);
+		if (first != null) {
+			if (TextUtils.isEmpty(namespace)) return first;
+			for (int i=first;i != -1;i = sameString[i]) {
+				if (namespace.equals(rawStrings.get(i).origin.namespace)) return i;
+			}
 		}
 		throw new RuntimeException("String: '" + s + "' not found");
 		//return -1;
@@ -579,6 +621,7 @@ class TagChunk extends Chunk<Chunk.EmptyHeader> {
 
     public TagChunk(Chunk parent, XmlPullParser p) throws XmlPullParserException {
 		super(parent);
+		header = new EmptyHeader();
 		if (parent instanceof TagChunk) {
 			((TagChunk) parent).content.add(this);
 		} else if (parent instanceof XmlChunk) {
@@ -617,24 +660,6 @@ class TagChunk extends Chunk<Chunk.EmptyHeader> {
 
 class ValueChunk extends Chunk<Chunk.EmptyHeader> {
 
-    class ValPair {
-        int pos;
-        String val;
-
-        public ValPair(Matcher m) {
-			int c = m.groupCount();
-			for (int i = 1; i <= c; ++i) {
-				String s = m.group(i);
-				if (s == null || s.isEmpty()) continue;
-				pos = i;
-				val = s;
-				return;
-			}
-			pos = -1;
-			val = m.group();
-        }
-    }
-
     private AttrChunk attrChunk;
     private String realString;
     short size = 8;
@@ -642,22 +667,9 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
     byte type = -1;
     int data = -1;
 
-    Pattern explicitType = Pattern.compile("!(?:(\\w+)!)?(.*)");
-    Pattern types = Pattern.compile(("^(?:" +
-									"(@null)" +
-									"|(@\\+?(?:\\w+:)?\\w+/\\w+|@(?:\\w+:)?[0-9a-zA-Z]+)" +
-									"|(true|false)" +
-									"|([-+]?\\d+)" +
-									"|(0x[0-9a-zA-Z]+)" +
-									"|([-+]?\\d+(?:\\.\\d+)?)" +
-									"|([-+]?\\d+(?:\\.\\d+)?(?:dp|dip|in|px|sp|pt|mm))" +
-									"|([-+]?\\d+(?:\\.\\d+)?(?:%))" +
-									"|(\\#(?:[0-9a-fA-F]{3}|[0-9a-fA-F]{4}|[0-9a-fA-F]{6}|[0-9a-fA-F]{8}))" +
-									"|(match_parent|wrap_content|fill_parent)" +
-									")$").replaceAll("\\s+", ""));
-
     public ValueChunk(AttrChunk parent) {
 		super(parent);
+		header = new EmptyHeader();
 		header.size = 8;
 		this.attrChunk = parent;
     }
@@ -667,6 +679,13 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
 		evaluate();
     }
 
+    /**
+     * Returns the string of a parsed string value, null for other types.
+     */
+    String getString() {
+		return type == ValueType.STRING ? realString : null;
+    }
+
     @Override
     public void writeEx(IntWriter w) throws IOException {
 		w.write(size);
@@ -729,84 +748,219 @@ class ValueChunk extends Chunk<Chunk.EmptyHeader> {
     }
 
     public void evaluate() {
-		Matcher m = explicitType.matcher(attrChunk.rawValue);
-		if (m.find()) {
-			String t = m.group(1);
-			String v = m.group(2);
+		parse();
+		if (type == ValueType.STRING) stringPool().addString(realString);
+    }
+
+    /**
+     * Sets type and data, or the string of string values, from the raw
+     * value without adding anything to the string pool.
+     */
+    void parse() {
+		String raw = attrChunk.rawValue;
+		int bang = raw.indexOf('!');
+		if (bang != -1) {
+			// "!value" or "!type!value", anywhere in the raw value.
+			String t = null;
+			int start = bang + 1;
+			int word = wordEnd(raw, start);
+			if (word != start && word < raw.length() && raw.charAt(word) == '!') {
+				t = raw.substring(start, word);
+				start = word + 1;
+			}
+			String v = raw.substring(start, lineEnd(raw, start));
 			if (t == null || t.isEmpty() || t.equals("string") || t.equals("str")) {
 				type = ValueType.STRING;
 				realString = v;
-				stringPool().addString(realString);
 				//data = stringIndex(null, v);
 			} else {
 				//TODO resolve other type
 				throw new RuntimeException();
 			}
 		} else {
-			m = types.matcher(attrChunk.rawValue);
-			if (m.find()) {
-				ValPair vp = new ValPair(m);
-				switch (vp.pos) {
-					case 1:
-						type = ValueType.NULL;
-						data = 0;
-						break;
-					case 2:
-						type = ValueType.REFERENCE;
-						data = getReferenceResolver().resolve(this, vp.val);
-						break;
-					case 3:
-						type = ValueType.INT_BOOLEAN;
-						data = "true".equalsIgnoreCase(vp.val) ? 1 : 0;
-						break;
-					case 4:
-						type = ValueType.INT_DEC;
-						data = Integer.parseInt(vp.val);
-						break;
-					case 5:
-						type = ValueType.INT_HEX;
-						data = Integer.parseInt(vp.val.substring(2), 16);
-						break;
-					case 6:
-						type = ValueType.FLOAT;
-						data = Float.floatToIntBits(Float.parseFloat(vp.val));
-						break;
-					case 7:
-						type = ValueType.DIMENSION;
-						data = evalcomplex(vp.val);
-						break;
-					case 8:
-						type = ValueType.FRACTION;
-						data = evalcomplex(vp.val);
-						break;
-					case 9:
-						type = ValueType.INT_COLOR_ARGB8;
-						data = Color.parseColor(vp.val);
-						break;
-					case 10:
-						type = ValueType.INT_DEC;
-						data = "wrap_content".equalsIgnoreCase(vp.val) ? -2 : -1;
-						break;
-					default:
-						type = ValueType.STRING;
-						realString = vp.val;
-						stringPool().addString(realString);
-						//data = stringIndex(null, attrChunk.rawValue);
-						break;
-				}
-			} else {
-				type = ValueType.STRING;
-				realString = attrChunk.rawValue;
-				stringPool().addString(realString);
-				//data = stringIndex(null, attrChunk.rawValue);
+			String val = stripLineTerminator(raw);
+			switch (classify(val)) {
+				case VALUE_NULL:
+					type = ValueType.NULL;
+					data = 0;
+					break;
+				case VALUE_REFERENCE:
+					type = ValueType.REFERENCE;
+					data = getReferenceResolver().resolve(this, val);
+					break;
+				case VALUE_BOOLEAN:
+					type = ValueType.INT_BOOLEAN;
+					data = "true".equalsIgnoreCase(val) ? 1 : 0;
+					break;
+				case VALUE_INT:
+					type = ValueType.INT_DEC;
+					data = Integer.parseInt(val);
+					break;
+				case VALUE_HEX:
+					type = ValueType.INT_HEX;
+					data = Integer.parseInt(val.substring(2), 16);
+					break;
+				case VALUE_FLOAT:
+					type = ValueType.FLOAT;
+					data = Float.floatToIntBits(Float.parseFloat(val));
+					break;
+				case VALUE_DIMENSION:
+					type = ValueType.DIMENSION;
+					data = evalcomplex(val);
+					break;
+				case VALUE_FRACTION:
+					type = ValueType.FRACTION;
+					data = evalcomplex(val);
+					break;
+				case VALUE_COLOR:
+					type = ValueType.INT_COLOR_ARGB8;
+					data = Color.parseColor(val);
+					break;
+				case VALUE_KEYWORD:
+					type = ValueType.INT_DEC;
+					data = "wrap_content".equalsIgnoreCase(val) ? -2 : -1;
+					break;
+				default:
+					type = ValueType.STRING;
+					realString = raw;
+					//data = stringIndex(null, attrChunk.rawValue);
+					break;
+			}
+		}
+    }
+
+    static final int
+    VALUE_STRING = 0,
+    VALUE_NULL = 1,
+    VALUE_REFERENCE = 2,
+    VALUE_BOOLEAN = 3,
+    VALUE_INT = 4,
+    VALUE_HEX = 5,
+    VALUE_FLOAT = 6,
+    VALUE_DIMENSION = 7,
+    VALUE_FRACTION = 8,
+    VALUE_COLOR = 9,
+    VALUE_KEYWORD = 10;
+
+    private static final String[] UNITS={"dp","dip","in","px","sp","pt","mm"};
+
+    /**
+     * Classifies a value in one pass, checking the forms in this order:
+     * @null, @[+][pkg:]type/name or @[pkg:]id, true/false, [-+]digits,
+     * 0x..., [-+]digits.digits, number with a dimension unit, number with
+     * %, #rgb/#argb/#rrggbb/#aarrggbb and the layout size keywords.
+     * Returns VALUE_STRING for anything else.
+     */
+    static int classify(String val) {
+		int length = val.length();
+		if (length == 0) return VALUE_STRING;
+		char first = val.charAt(0);
+		if (first == '@') {
+			if (val.equals("@null")) return VALUE_NULL;
+			return isReference(val) ? VALUE_REFERENCE : VALUE_STRING;
+		}
+		if (first == '#') {
+			int digits = length - 1;
+			if (digits != 3 && digits != 4 && digits != 6 && digits != 8) return VALUE_STRING;
+			for (int i = 1; i < length; ++i) {
+				char c = val.charAt(i);
+				if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) return VALUE_STRING;
 			}
+			return VALUE_COLOR;
+		}
+		if (val.equals("true") || val.equals("false")) return VALUE_BOOLEAN;
+		if (val.equals("match_parent") || val.equals("wrap_content") || val.equals("fill_parent")) return VALUE_KEYWORD;
+		if (length > 2 && val.startsWith("0x") && alnumEnd(val, 2) == length) return VALUE_HEX;
+		int i = 0;
+		if (first == '-' || first == '+') ++i;
+		int integer = digitEnd(val, i);
+		if (integer == i) return VALUE_STRING;
+		if (integer == length) return VALUE_INT;
+		int end = integer;
+		if (val.charAt(end) == '.') {
+			int fraction = digitEnd(val, end + 1);
+			if (fraction != end + 1) end = fraction;
+		}
+		if (end == length) return end == integer ? VALUE_INT : VALUE_FLOAT;
+		String suffix = val.substring(end);
+		if (suffix.equals("%")) return VALUE_FRACTION;
+		for (String unit : UNITS) {
+			if (suffix.equals(unit)) return VALUE_DIMENSION;
+		}
+		return VALUE_STRING;
+    }
+
+    /**
+     * @[+][pkg:]type/name, or without + and type, @[pkg:]id with an
+     * alphanumeric id.
+     */
+    private static boolean isReference(String val) {
+		int length = val.length();
+		int i = 1;
+		boolean plus = i < length && val.charAt(i) == '+';
+		if (plus) ++i;
+		int word = wordEnd(val, i);
+		if (word == i) return false;
+		int start = i;
+		if (word < length && val.charAt(word) == ':') {
+			start = word + 1;
+			word = wordEnd(val, start);
+			if (word == start) return false;
+		}
+		if (word < length && val.charAt(word) == '/') {
+			return wordEnd(val, word + 1) == length && word + 1 != length;
+		}
+		return !plus && word == length && alnumEnd(val, start) == length;
+    }
+
+    private static int wordEnd(String s, int i) {
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) break;
+			++i;
+		}
+		return i;
+    }
+
+    private static int alnumEnd(String s, int i) {
+		while (i < s.length()) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) break;
+			++i;
 		}
+		return i;
+    }
+
+    private static int digitEnd(String s, int i) {
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') ++i;
+		return i;
+    }
+
+    private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    private static int lineEnd(String s, int i) {
+		while (i < s.length() && !isLineTerminator(s.charAt(i))) ++i;
+		return i;
+    }
+
+    /**
+     * Drops one trailing line terminator, the classified forms may be
+     * followed by one (as the former "$" anchored patterns allowed).
+     */
+    private static String stripLineTerminator(String s) {
+		int length = s.length();
+		if (length >= 2 && s.charAt(length - 2) == '\r' && s.charAt(length - 1) == '\n') return s.substring(0, length - 2);
+		if (length >= 1 && isLineTerminator(s.charAt(length - 1))) return s.substring(0, length - 1);
+		return s;
     }
 }
 
 class XmlChunk extends Chunk<XmlChunk.H> {
     public XmlChunk() {
 		super(null);
+		header = new H();
 		this.context = new Context();
     }
 
@@ -859,6 +1013,7 @@ class AttrChunk extends Chunk<Chunk.EmptyHeader> {
 
     public AttrChunk(StartTagChunk startTagChunk) {
         super(startTagChunk);
+        header = new EmptyHeader();
         this.startTagChunk = startTagChunk;
         header.size = 20;
     }
@@ -880,28 +1035,39 @@ class AttrChunk extends Chunk<Chunk.EmptyHeader> {
     }
 }
 
+/**
+ * Writes little-endian values through a ByteBuffer, either one the
+ * caller owns or one that is flushed to a stream whenever it fills up.
+ * Arrays are written in bulk.
+ */
 class IntWriter {
     private OutputStream os;
+    private ByteBuffer buffer;
     public boolean bigEndian=false;
     private int pos=0;
 
     public IntWriter(OutputStream os) {
 		this.os = os;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Writes into buffer from its position on, the buffer must be
+     * little-endian and large enough, it is never grown.
+     */
+    public IntWriter(ByteBuffer buffer) {
+		this.buffer = buffer;
     }
 
     public void write(byte b) throws IOException {
-		os.write(b);
+		ensure(1);
+		buffer.put(b);
 		pos += 1;
     }
 
     public void write(short s) throws IOException {
-		if (!bigEndian) {
-			os.write(s & 0xff);
-			os.write((s >>> 8) & 0xff);
-		} else {
-			os.write((s >>> 8) & 0xff);
-			os.write(s & 0xff);
-		}
+		ensure(2);
+		buffer.putShort(bigEndian ? Short.reverseBytes(s) : s);
 		pos += 2;
     }
 
@@ -910,31 +1076,88 @@ class IntWriter {
     }
 
     public void write(int x) throws IOException {
-		if (!bigEndian) {
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-			x >>>= 8;
-			os.write(x & 0xff);
-		} else {
+		if (bigEndian) {
 			throw new RuntimeException();
 		}
+		ensure(4);
+		buffer.putInt(x);
 		pos += 4;
     }
 
+    public void write(byte[] bytes) throws IOException {
+		for (int i=0;i != bytes.length;) {
+			ensure(1);
+			int n=Math.min(bytes.length - i, buffer.remaining());
+			buffer.put(bytes, i, n);
+			i += n;
+		}
+		pos += bytes.length;
+    }
+
+    public void write(char[] chars) throws IOException {
+		if (bigEndian) {
+			for (char c:chars) write(c);
+			return;
+		}
+		for (int i=0;i != chars.length;) {
+			ensure(2);
+			int n=Math.min(chars.length - i, buffer.remaining() / 2);
+			buffer.asCharBuffer().put(chars, i, n);
+			buffer.position(buffer.position() + n * 2);
+			i += n;
+		}
+		pos += chars.length * 2;
+    }
+
+    public void write(int[] ints) throws IOException {
+		if (bigEndian) {
+			throw new RuntimeException();
+		}
+		for (int i=0;i != ints.length;) {
+			ensure(4);
+			int n=Math.min(ints.length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(ints, i, n);
+			buffer.position(buffer.position() + n * 4);
+			i += n;
+		}
+		pos += ints.length * 4;
+    }
+
     public void writePlaceHolder(int len, String name) throws IOException {
-		os.write(new byte[len]);
+		write(new byte[len]);
+    }
+
+    /**
+     * Writes out what is buffered and flushes the stream.
+     */
+    public void flush() throws IOException {
+		if (os == null) return;
+		os.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+		os.flush();
     }
 
     public void close() throws IOException {
-		os.close();
+		flush();
+		if (os != null) os.close();
     }
 
     public int getPos() {
 		return pos;
     }
+
+    /**
+     * Makes room for n bytes, n is at most 4 so a drained buffer always
+     * has it.
+     */
+    private void ensure(int n) throws IOException {
+		if (buffer.remaining() >= n) return;
+		if (os == null) throw new BufferOverflowException();
+		os.write(buffer.array(), 0, buffer.position());
+		buffer.clear();
+    }
+
+    private static final int BUFFER_SIZE = 8192;
 }
 
 class Context {
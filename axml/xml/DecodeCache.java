@@ -0,0 +1,199 @@
+package axml.xml;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+
+/**
+ * Cache of decoded xml text keyed by a SHA-256 hash of the binary input.
+ * Holds a bounded in-memory LRU tier and, optionally, an on-disk tier
+ * limited to a total size, least recently used files are evicted first.
+ * One cache can be shared by any number of decoders and threads.
+ */
+public class DecodeCache {
+
+	/**
+	 * @param memoryEntries number of documents kept in memory
+	 * @param directory on-disk tier, null for a memory only cache
+	 * @param diskLimit maximum total size of the on-disk tier in bytes
+	 */
+	public DecodeCache(final int memoryEntries, Path directory, long diskLimit) throws IOException {
+		m_memory = new LinkedHashMap<String,String>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,String> eldest) {
+				return size() > memoryEntries;
+			}
+		};
+		m_directory = directory;
+		m_diskLimit = diskLimit;
+		if (directory != null) {
+			Files.createDirectories(directory);
+			for (Path file : listFiles()) {
+				m_diskSize += Files.size(file);
+			}
+		}
+	}
+
+	public DecodeCache(int memoryEntries) throws IOException {
+		this(memoryEntries, null, 0);
+	}
+
+	/**
+	 * Returns the key of input as decoded with the given header comment,
+	 * input itself is not modified.
+	 */
+	public String key(String comment, ByteBuffer input) {
+		MessageDigest digest=DIGEST.get();
+		digest.reset();
+		if (comment != null) {
+			digest.update(comment.getBytes(UTF_8));
+		}
+		digest.update((byte)0);
+		digest.update(input.duplicate());
+		byte[] hash=digest.digest();
+		char[] key=new char[hash.length * 2];
+		for (int i=0;i != hash.length;++i) {
+			key[i * 2] = HEX_DIGITS[(hash[i] >>> 4) & 0xF];
+			key[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+		}
+		return new String(key);
+	}
+
+	/**
+	 * Returns the stored text, or null if there is none.
+	 */
+	public String get(String key) {
+		synchronized (m_memory) {
+			String text=m_memory.get(key);
+			if (text != null) {
+				return text;
+			}
+		}
+		if (m_directory == null) {
+			return null;
+		}
+		Path file=m_directory.resolve(key + ".xml");
+		try {
+			String text=new String(Files.readAllBytes(file), UTF_8);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			synchronized (m_memory) {
+				m_memory.put(key, text);
+			}
+			return text;
+		} catch (IOException e) {
+			// Missing or evicted meanwhile, either way a miss.
+			return null;
+		}
+	}
+
+	public void put(String key, String text) {
+		synchronized (m_memory) {
+			m_memory.put(key, text);
+		}
+		if (m_directory == null) {
+			return;
+		}
+		Path file=m_directory.resolve(key + ".xml");
+		try {
+			if (Files.exists(file)) {
+				return;
+			}
+			byte[] bytes=text.getBytes(UTF_8);
+			if (bytes.length > m_diskLimit) {
+				return;
+			}
+			Path temp=Files.createTempFile(m_directory, key, ".tmp");
+			Files.write(temp, bytes);
+			// Deciding whether the file is new and counting it go together,
+			// so a key stored by two threads at once is counted once.
+			synchronized (this) {
+				if (Files.exists(file)) {
+					Files.delete(temp);
+					return;
+				}
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				m_diskSize += bytes.length;
+				if (m_diskSize > m_diskLimit) {
+					evict();
+				}
+			}
+		} catch (IOException e) {
+			// The disk tier is best effort, the text is still cached in memory.
+		}
+	}
+
+	public void clear() throws IOException {
+		synchronized (m_memory) {
+			m_memory.clear();
+		}
+		if (m_directory == null) {
+			return;
+		}
+		synchronized (this) {
+			for (Path file : listFiles()) {
+				Files.deleteIfExists(file);
+			}
+			m_diskSize = 0;
+		}
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private void evict() throws IOException {
+		List<Path> files=listFiles();
+		final Map<Path,FileTime> times=new HashMap<Path,FileTime>();
+		for (Path file : files) {
+			times.put(file, Files.getLastModifiedTime(file));
+		}
+		Collections.sort(files, new Comparator<Path>() {
+				public int compare(Path lhs, Path rhs) {
+					return times.get(lhs).compareTo(times.get(rhs));
+				}
+			});
+		for (Path file : files) {
+			if (m_diskSize <= m_diskLimit) {
+				break;
+			}
+			long size=Files.size(file);
+			if (Files.deleteIfExists(file)) {
+				m_diskSize -= size;
+			}
+		}
+	}
+
+	private List<Path> listFiles() throws IOException {
+		List<Path> files=new ArrayList<Path>();
+		DirectoryStream<Path> stream=Files.newDirectoryStream(m_directory, "*.xml");
+		try {
+			for (Path file : stream) {
+				files.add(file);
+			}
+		} finally {
+			stream.close();
+		}
+		return files;
+	}
+
+	private final LinkedHashMap<String,String> m_memory;
+	private final Path m_directory;
+	private final long m_diskLimit;
+	private long m_diskSize;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX_DIGITS="0123456789abcdef".toCharArray();
+
+	private static final ThreadLocal<MessageDigest> DIGEST=new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+}
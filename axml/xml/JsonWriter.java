@@ -0,0 +1,224 @@
+package axml.xml;
+
+import android.util.*;
+import org.xmlpull.v1.*;
+import java.io.*;
+
+/**
+ * Writes the events of an AXmlResourceParser as JSON, element by element.
+ * Each element becomes {"name":..,"xmlns":{..},"attributes":{..},"children":[..]},
+ * text nodes become strings among the children.
+ * Decimal ints, floats and booleans are written as JSON numbers and
+ * booleans, dimensions and fractions as {"value":..,"unit":..}, and
+ * references as {"reference":id} or {"attribute":id}. Other values are
+ * written as the same strings decoded xml shows.
+ */
+class JsonWriter {
+
+	public JsonWriter(Appendable out) {
+		m_out = out;
+	}
+
+	public void write(AXmlResourceParser parser) throws XmlPullParserException, IOException {
+		int depth=0;
+		while (true) {
+			int type=parser.next();
+			if (type == XmlPullParser.END_DOCUMENT) {
+				break;
+			}
+			switch (type) {
+				case XmlPullParser.START_TAG:
+					{
+						startChild(depth);
+						depth += 1;
+						if (depth == m_hasChildren.length) {
+							boolean[] grown=new boolean[depth * 2];
+							System.arraycopy(m_hasChildren, 0, grown, 0, depth);
+							m_hasChildren = grown;
+						}
+						m_hasChildren[depth] = false;
+
+						m_out.append("{\"name\":\"");
+						appendPrefix(parser.getPrefix());
+						appendEscaped(parser.getName());
+						m_out.append('"');
+
+						int namespaceCountBefore=parser.getNamespaceCount(parser.getDepth() - 1);
+						int namespaceCount=parser.getNamespaceCount(parser.getDepth());
+						if (namespaceCount != namespaceCountBefore) {
+							m_out.append(",\"xmlns\":{");
+							for (int i=namespaceCountBefore;i != namespaceCount;++i) {
+								if (i != namespaceCountBefore) {
+									m_out.append(',');
+								}
+								m_out.append('"');
+								appendEscaped(parser.getNamespacePrefix(i));
+								m_out.append("\":\"");
+								appendEscaped(parser.getNamespaceUri(i));
+								m_out.append('"');
+							}
+							m_out.append('}');
+						}
+
+						int attributeCount=parser.getAttributeCount();
+						if (attributeCount != 0) {
+							m_out.append(",\"attributes\":{");
+							for (int i=0;i != attributeCount;++i) {
+								if (i != 0) {
+									m_out.append(',');
+								}
+								m_out.append('"');
+								appendPrefix(parser.getAttributePrefix(i));
+								appendEscaped(parser.getAttributeName(i));
+								m_out.append("\":");
+								appendValue(parser, i);
+							}
+							m_out.append('}');
+						}
+						break;
+					}
+				case XmlPullParser.END_TAG:
+					{
+						m_out.append(m_hasChildren[depth] ?"]}": "}");
+						depth -= 1;
+						break;
+					}
+				case XmlPullParser.TEXT:
+					{
+						startChild(depth);
+						m_out.append('"');
+						appendEscaped(parser.getText());
+						m_out.append('"');
+						break;
+					}
+			}
+		}
+		m_out.append('\n');
+	}
+
+	///////////////////////////////////////////// implementation
+
+	/**
+	 * Opens the children array of the element at depth, or separates
+	 * the next child from the previous one.
+	 */
+	private void startChild(int depth) throws IOException {
+		if (depth == 0) {
+			return;
+		}
+		if (m_hasChildren[depth]) {
+			m_out.append(',');
+		} else {
+			m_out.append(",\"children\":[");
+			m_hasChildren[depth] = true;
+		}
+	}
+
+	private void appendValue(AXmlResourceParser parser, int index) throws IOException {
+		int type=parser.getAttributeValueType(index);
+		int data=parser.getAttributeValueData(index);
+		switch (type) {
+			case TypedValue.TYPE_INT_DEC:
+				m_out.append(Integer.toString(data));
+				return;
+			case TypedValue.TYPE_INT_BOOLEAN:
+				m_out.append(data != 0 ?"true": "false");
+				return;
+			case TypedValue.TYPE_FLOAT:
+				appendNumber(Float.intBitsToFloat(data));
+				return;
+			case TypedValue.TYPE_DIMENSION:
+			case TypedValue.TYPE_FRACTION:
+				m_out.append("{\"value\":");
+				appendNumber(AxmlUtil.complexToFloat(data));
+				m_out.append(",\"unit\":\"");
+				m_out.append(ValueRenderer.getUnit(type, data));
+				m_out.append("\"}");
+				return;
+			case TypedValue.TYPE_REFERENCE:
+				m_out.append("{\"reference\":").append(Integer.toString(data)).append('}');
+				return;
+			case TypedValue.TYPE_ATTRIBUTE:
+				m_out.append("{\"attribute\":").append(Integer.toString(data)).append('}');
+				return;
+		}
+		m_out.append('"');
+		int length=m_renderer.render(type, data);
+		if (length == -1) {
+			appendEscaped(parser.getAttributeValue(index));
+		} else {
+			appendEscaped(m_renderer.getChars(), length);
+		}
+		m_out.append('"');
+	}
+
+	/**
+	 * JSON has no NaN or infinities, those are written as strings.
+	 */
+	private void appendNumber(float value) throws IOException {
+		m_number.setLength(0);
+		m_number.append(value);
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			m_out.append('"').append(m_number).append('"');
+		} else {
+			m_out.append(m_number);
+		}
+	}
+
+	private void appendPrefix(String prefix) throws IOException {
+		if (prefix == null || prefix.length() == 0) {
+			return;
+		}
+		appendEscaped(prefix);
+		m_out.append(':');
+	}
+
+	private void appendEscaped(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		int start=0;
+		for (int i=0, e=value.length();i != e;++i) {
+			char c=value.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				continue;
+			}
+			m_out.append(value, start, i);
+			appendEscape(c);
+			start = i + 1;
+		}
+		m_out.append(value, start, value.length());
+	}
+
+	private void appendEscaped(char[] value, int length) throws IOException {
+		for (int i=0;i != length;++i) {
+			char c=value[i];
+			if (c >= 0x20 && c != '"' && c != '\\') {
+				m_out.append(c);
+			} else {
+				appendEscape(c);
+			}
+		}
+	}
+
+	private void appendEscape(char c) throws IOException {
+		switch (c) {
+			case '"': m_out.append("\\\""); break;
+			case '\\': m_out.append("\\\\"); break;
+			case '\n': m_out.append("\\n"); break;
+			case '\r': m_out.append("\\r"); break;
+			case '\t': m_out.append("\\t"); break;
+			default:
+				m_out.append("\\u00");
+				m_out.append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+				break;
+		}
+	}
+
+	private final Appendable m_out;
+	private final ValueRenderer m_renderer=new ValueRenderer();
+	private final StringBuilder m_number=new StringBuilder(16);
+	private boolean[] m_hasChildren=new boolean[16];
+
+	private static final char[] HEX_DIGITS="0123456789abcdef".toCharArray();
+}
@@ -3,6 +3,10 @@ package axml.xml;
 import java.lang.reflect.*;
 import java.util.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.charset.*;
+import java.nio.channels.*;
+import java.nio.file.*;
 import java.util.regex.*;
 import org.xmlpull.v1.*;
 import android.util.*;
@@ -123,14 +127,33 @@ class IntReader {
 	public IntReader(InputStream stream, boolean bigEndian) {
 		reset(stream, bigEndian);
 	}
+	public IntReader(ByteBuffer buffer) {
+		reset(buffer);
+	}
 
 	public final void reset(InputStream stream, boolean bigEndian) {
 		m_stream = stream;
+		m_buffer = null;
 		m_bigEndian = bigEndian;
 		m_position = 0;		
 	}
 
+	/**
+	 * Reads directly from the buffer, starting at its current position.
+	 * The buffer itself is not modified, a little-endian view of it is used.
+	 */
+	public final void reset(ByteBuffer buffer) {
+		m_stream = null;
+		m_buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+		m_bigEndian = false;
+		m_position = 0;
+	}
+
 	public final void close() {
+		if (m_buffer != null) {
+			reset(null, false);
+			return;
+		}
 		if (m_stream == null) {
 			return;
 		}
@@ -145,11 +168,18 @@ class IntReader {
 		return m_stream;
 	}
 
+	public final ByteBuffer getBuffer() {
+		return m_buffer;
+	}
+
 	public final boolean isBigEndian() {
 		return m_bigEndian;
 	}
 	public final void setBigEndian(boolean bigEndian) {
 		m_bigEndian = bigEndian;
+		if (m_buffer != null) {
+			m_buffer.order(bigEndian ?ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+		}
 	}
 
 	public final int readByte() throws IOException {
@@ -166,6 +196,9 @@ class IntReader {
 		if (length < 0 || length > 4) {
 			throw new IllegalArgumentException();
 		}
+		if (m_buffer != null) {
+			return readBufferInt(length);
+		}
 		int result=0;
 		if (m_bigEndian) {
 			for (int i=(length - 1) * 8;i >= 0;i -= 8) {
@@ -196,18 +229,71 @@ class IntReader {
 		return array;
 	}
 
+	/**
+	 * Reads the whole region at once and converts it through an IntBuffer view,
+	 * rather than assembling each int byte by byte.
+	 */
 	public final void readIntArray(int[] array, int offset, int length) throws IOException {
-		for (;length > 0;length -= 1) {
-			array[offset++] = readInt();
+		if (length <= 0) {
+			return;
+		}
+		ByteBuffer bytes;
+		if (m_buffer != null) {
+			if (m_buffer.remaining() / 4 < length) {
+				throw new EOFException();
+			}
+			if (length < BULK_READ_MIN) {
+				// Short arrays (attributes) are cheaper without a view.
+				for (;length > 0;length -= 1) {
+					array[offset++] = m_buffer.getInt();
+				}
+				return;
+			}
+			bytes = m_buffer;
+		} else {
+			bytes = ByteBuffer.wrap(readByteArray(length * 4))
+				.order(m_bigEndian ?ByteOrder.BIG_ENDIAN: ByteOrder.LITTLE_ENDIAN);
+		}
+		bytes.asIntBuffer().get(array, offset, length);
+		if (m_buffer != null) {
+			m_buffer.position(m_buffer.position() + length * 4);
 		}
 	}
 
+	/**
+	 * Returns the next length bytes as a little-endian buffer.
+	 * For a buffer-backed reader this is a view, nothing is copied.
+	 */
+	public final ByteBuffer readBuffer(int length) throws IOException {
+		if (m_buffer == null) {
+			return ByteBuffer.wrap(readByteArray(length)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (m_buffer.remaining() < length) {
+			throw new EOFException();
+		}
+		ByteBuffer view=m_buffer.slice();
+		view.limit(length);
+		m_buffer.position(m_buffer.position() + length);
+		return view.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
 	public final byte[] readByteArray(int length) throws IOException {
 		byte[] array=new byte[length];
-		int read=m_stream.read(array);
-		m_position += read;
-		if (read != length) {
-			throw new EOFException();
+		if (m_buffer != null) {
+			if (m_buffer.remaining() < length) {
+				throw new EOFException();
+			}
+			m_buffer.get(array);
+			return array;
+		}
+		int offset=0;
+		while (offset != length) {
+			int read=m_stream.read(array, offset, length - offset);
+			if (read == -1) {
+				throw new EOFException();
+			}
+			offset += read;
+			m_position += read;
 		}
 		return array;
 	}
@@ -216,10 +302,24 @@ class IntReader {
 		if (bytes <= 0) {
 			return;
 		}
-		long skipped=m_stream.skip(bytes);
-		m_position += skipped;
-		if (skipped != bytes) {
-			throw new EOFException();
+		if (m_buffer != null) {
+			if (m_buffer.remaining() < bytes) {
+				throw new EOFException();
+			}
+			m_buffer.position(m_buffer.position() + bytes);
+			return;
+		}
+		// Buffered streams may skip less than asked for, so fall back to read().
+		while (bytes != 0) {
+			long skipped=m_stream.skip(bytes);
+			if (skipped <= 0) {
+				if (m_stream.read() == -1) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			bytes -= skipped;
+			m_position += skipped;
 		}
 	}
 
@@ -228,16 +328,54 @@ class IntReader {
 	}
 
 	public final int available() throws IOException {
+		if (m_buffer != null) {
+			return m_buffer.remaining();
+		}
 		return m_stream.available();
 	}
 
 	public final int getPosition() {
+		if (m_buffer != null) {
+			return m_buffer.position();
+		}
 		return m_position;
 	}
 
+	///////////////////////////////////
+
+	private final int readBufferInt(int length) throws IOException {
+		if (m_buffer.remaining() < length) {
+			throw new EOFException();
+		}
+		switch (length) {
+			case 4:
+				return m_buffer.getInt();
+			case 2:
+				return m_buffer.getShort() & 0xFFFF;
+			case 1:
+				return m_buffer.get() & 0xFF;
+			case 0:
+				return 0;
+		}
+		int result=0;
+		if (m_bigEndian) {
+			for (int i=(length - 1) * 8;i >= 0;i -= 8) {
+				result |= ((m_buffer.get() & 0xFF) << i);
+			}
+		} else {
+			for (int i=0;i != length * 8;i += 8) {
+				result |= ((m_buffer.get() & 0xFF) << i);
+			}
+		}
+		return result;
+	}
+
 	/////////////////////////////////// data
 
 	private InputStream m_stream;
+	private ByteBuffer m_buffer;
+
+	private static final int BULK_READ_MIN = 64;
 	private boolean m_bigEndian;
 	private int m_position;
 }
@@ -249,25 +387,47 @@ interface ReferenceResolver {
 class StringBlock {
 
 	public static StringBlock read(IntReader reader) throws IOException {
+		return read(reader, null);
+	}
+
+	/**
+	 * Reads the block into recycled (if not null), reusing its arrays
+	 * wherever they are large enough.
+	 */
+	public static StringBlock read(IntReader reader, StringBlock recycled) throws IOException {
 		ChunkUtil.readCheckType(reader, 0x001C0001);
 		int chunkSize=reader.readInt();
 		int stringCount=reader.readInt();
 		int styleOffsetCount=reader.readInt();
-		/*?*/reader.readInt();
+		int flags=reader.readInt();
 		int stringsOffset=reader.readInt();
 		int stylesOffset=reader.readInt();
 
-		StringBlock block=new StringBlock();
-		block.m_stringOffsets = reader.readIntArray(stringCount);
+		StringBlock block=(recycled != null) ?recycled: new StringBlock();
+		block.m_isUTF8 = (flags & UTF8_FLAG) != 0;
+		block.m_stringCount = stringCount;
+		if (block.m_stringOffsets == null || block.m_stringOffsets.length < stringCount) {
+			block.m_stringOffsets = new int[stringCount];
+		}
+		reader.readIntArray(block.m_stringOffsets, 0, stringCount);
+		block.m_styleOffsets = null;
+		block.m_styles = null;
 		if (styleOffsetCount != 0) {
 			block.m_styleOffsets = reader.readIntArray(styleOffsetCount);
 		}
+		if (block.m_cache != null) {
+			Arrays.fill(block.m_cache, null);
+		}
+		if (block.m_index != null) {
+			block.m_index.clear();
+			block.m_indexed = false;
+		}
 		{
 			int size=((stylesOffset == 0) ?chunkSize: stylesOffset) - stringsOffset;
 			if ((size % 4) != 0) {
 				throw new IOException("String data size is not multiple of 4 (" + size + ").");
 			}
-			block.m_strings = reader.readIntArray(size / 4);
+			block.m_strings = reader.readBuffer(size);
 		}
 		if (stylesOffset != 0) {
 			int size=(chunkSize - stylesOffset);
@@ -284,28 +444,44 @@ class StringBlock {
 	 * Returns number of strings in block. 
 	 */
 	public int getCount() {
-		return m_stringOffsets != null ?
-			m_stringOffsets.length:
-			0;
+		return m_stringCount;
 	}
 
 	/**
 	 * Returns raw string (without any styling information) at specified index.
 	 */
 	public String getString(int index) {
-		if (index < 0 ||
-			m_stringOffsets == null ||
-			index >= m_stringOffsets.length) {
+		if (index < 0 || index >= m_stringCount) {
 			return null;
 		}
-		int offset=m_stringOffsets[index];
-		int length=getShort(m_strings, offset);
-		StringBuilder result=new StringBuilder(length);
-		for (;length != 0;length -= 1) {
-			offset += 2;
-			result.append((char)getShort(m_strings, offset));
+		if (m_cacheLimit >= 0 && index >= m_cacheLimit) {
+			return decodeString(index);
+		}
+		if (m_cache == null || index >= m_cache.length) {
+			m_cache = new String[m_cacheLimit >= 0 ?
+								 Math.min(m_cacheLimit, m_stringCount):
+								 m_stringCount];
 		}
-		return result.toString();
+		String result=m_cache[index];
+		if (result == null) {
+			result = decodeString(index);
+			m_cache[index] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Limits the decoded string cache to the first limit indices,
+	 * strings past it are decoded on every call.
+	 * A negative limit caches every string, 0 disables the cache.
+	 */
+	public void setCacheLimit(int limit) {
+		m_cacheLimit = limit;
+		m_cache = null;
+	}
+
+	public int getCacheLimit() {
+		return m_cacheLimit;
 	}
 
 	/**
@@ -375,29 +551,42 @@ class StringBlock {
 	/**
 	 * Finds index of the string.
 	 * Returns -1 if the string was not found.
+	 * The first call builds a string to index map of the whole pool.
 	 */
 	public int find(String string) {
-		if (string == null) {
+		if (string == null || m_stringCount == 0) {
 			return -1;
 		}
-		for (int i=0;i != m_stringOffsets.length;++i) {
-			int offset=m_stringOffsets[i];
-			int length=getShort(m_strings, offset);
-			if (length != string.length()) {
-				continue;
+		if (!m_indexed) {
+			if (m_index == null) {
+				m_index = new HashMap<String,Integer>(m_stringCount * 4 / 3 + 1);
 			}
-			int j=0;
-			for (;j != length;++j) {
-				offset += 2;
-				if (string.charAt(j) != getShort(m_strings, offset)) {
-					break;
-				}
-			}
-			if (j == length) {
-				return i;
+			for (int i=m_stringCount - 1;i >= 0;--i) {
+				// Walking backwards leaves the first of any duplicates in the map.
+				m_index.put(getString(i), i);
 			}
+			m_indexed = true;
 		}
-		return -1;
+		Integer i=m_index.get(string);
+		return i == null ?-1: i;
+	}
+
+	/**
+	 * Copies the string data out of the reader's buffer so the block can
+	 * outlive it, and trims everything else to size.
+	 * Decoded strings and the index are dropped, they are rebuilt on demand.
+	 */
+	void detach() {
+		ByteBuffer strings=ByteBuffer.allocate(m_strings.remaining());
+		strings.put(m_strings.duplicate());
+		strings.flip();
+		m_strings = strings.order(ByteOrder.LITTLE_ENDIAN);
+		if (m_stringOffsets.length != m_stringCount) {
+			m_stringOffsets = Arrays.copyOf(m_stringOffsets, m_stringCount);
+		}
+		m_cache = null;
+		m_index = null;
+		m_indexed = false;
 	}
 
 	///////////////////////////////////////////// implementation
@@ -405,6 +594,56 @@ class StringBlock {
 	private StringBlock() {
 	}
 
+	private String decodeString(int index) {
+		int offset=m_stringOffsets[index];
+		if (m_isUTF8) {
+			return decodeUTF8(offset);
+		}
+		int length=m_strings.getChar(offset);
+		if ((length & 0x8000) != 0) {
+			offset += 2;
+			length = ((length & 0x7FFF) << 16) | m_strings.getChar(offset);
+		}
+		char[] result=new char[length];
+		for (int i=0;i != length;++i) {
+			offset += 2;
+			result[i] = m_strings.getChar(offset);
+		}
+		return new String(result);
+	}
+
+	/**
+	 * UTF-8 entries start with two lengths, in chars and then in bytes,
+	 * each taking one byte, or two if the high bit of the first is set.
+	 */
+	private String decodeUTF8(int offset) {
+		int charCount=m_strings.get(offset++) & 0xFF;
+		if ((charCount & 0x80) != 0) {
+			charCount = ((charCount & 0x7F) << 8) | (m_strings.get(offset++) & 0xFF);
+		}
+		int length=m_strings.get(offset++) & 0xFF;
+		if ((length & 0x80) != 0) {
+			length = ((length & 0x7F) << 8) | (m_strings.get(offset++) & 0xFF);
+		}
+		byte[] bytes;
+		int start;
+		if (m_strings.hasArray()) {
+			bytes = m_strings.array();
+			start = m_strings.arrayOffset() + offset;
+		} else {
+			bytes = new byte[length];
+			start = 0;
+			ByteBuffer view=m_strings.duplicate();
+			view.position(offset);
+			view.get(bytes);
+		}
+		// One char per byte only happens when every byte is ASCII.
+		if (charCount == length) {
+			return new String(bytes, start, length, ISO_8859_1);
+		}
+		return new String(bytes, start, length, UTF_8);
+	}
+
 	/**
 	 * Returns style information - array of int triplets,
 	 * where in each triplet:
@@ -441,17 +680,24 @@ class StringBlock {
 		return style;
 	}
 
-	private static final int getShort(int[] array, int offset) {
-		int value=array[offset / 4];
-		if ((offset % 4) / 2 == 0) {
-			return (value & 0xFFFF);
-		} else {
-			return (value >>> 16);
-		}
-	}
-
+	private boolean m_isUTF8;
+	private int m_stringCount;
 	private int[] m_stringOffsets;
-	private int[] m_strings;
+	/*
+	 * Raw string data, a view over the reader's buffer when there is one.
+	 * Strings are only decoded when asked for.
+	 */
+	private ByteBuffer m_strings;
+	private String[] m_cache;
+	private HashMap<String,Integer> m_index;
+	private boolean m_indexed;
+	private int m_cacheLimit=AxmlUtil.Config.stringCacheLimit;
+
+	private static final int UTF8_FLAG = 0x100;
+
+	private static final Charset
+	UTF_8 = Charset.forName("UTF-8"),
+	ISO_8859_1 = Charset.forName("ISO-8859-1");
 	private int[] m_styleOffsets;
 	private int[] m_styles;
 
@@ -519,10 +765,66 @@ class AXmlResourceParser implements XmlResourceParser {
 	public void open(InputStream stream) {
 		close();
 		if (stream != null) {
+			if (!(stream instanceof BufferedInputStream || stream instanceof ByteArrayInputStream)) {
+				stream = new BufferedInputStream(stream);
+			}
 			m_reader = new IntReader(stream, false);
 		}
 	}
 
+	/**
+	 * Parses the binary xml held in the buffer, from its position to its limit.
+	 */
+	public void open(ByteBuffer buffer) {
+		close();
+		if (buffer != null) {
+			m_reader = new IntReader(buffer);
+		}
+	}
+
+	/**
+	 * Memory-maps the file and parses it in place.
+	 */
+	public void open(Path path) throws IOException {
+		open(map(path));
+	}
+
+	static ByteBuffer map(Path path) throws IOException {
+		FileChannel channel=FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Starts parsing a new document while keeping the reader, string pool,
+	 * resource id, attribute and namespace arrays of the previous one, so a
+	 * warmed up parser does not allocate per event.
+	 * The string pool is only reused if nobody took it through
+	 * getStringPool() or getStrings(), a block handed out keeps holding
+	 * the strings of its own document.
+	 */
+	public void reset(ByteBuffer buffer) {
+		if (m_strings != null && !m_stringsTaken) {
+			m_recycledStrings = m_strings;
+		}
+		m_stringsTaken = false;
+		m_operational = false;
+		if (m_reader == null) {
+			m_reader = new IntReader(buffer);
+		} else {
+			m_reader.close();
+			m_reader.reset(buffer);
+		}
+		m_strings = null;
+		m_resourceIDCount = 0;
+		m_namespaces.reset();
+		m_decreaseDepth = false;
+		resetEventInfo();
+	}
+
 	public void close() {
 		if (!m_operational) {
 			return;
@@ -531,11 +833,40 @@ class AXmlResourceParser implements XmlResourceParser {
 		m_reader.close();
 		m_reader = null;
 		m_strings = null;
+		m_recycledStrings = null;
+		m_stringsTaken = false;
 		m_resourceIDs = null;
+		m_resourceIDCount = 0;
+		m_attributes = null;
 		m_namespaces.reset();
+		m_decreaseDepth = false;
 		resetEventInfo();
 	}
 
+	/**
+	 * When set, START_TAG only records where the attribute records are and
+	 * each getter decodes the record it needs. Applies to parsers opened with
+	 * a ByteBuffer or a Path, streams always read attributes eagerly.
+	 */
+	public void setLazyAttributes(boolean lazy) {
+		m_lazyAttributes = lazy;
+	}
+
+	public boolean isLazyAttributes() {
+		return m_lazyAttributes;
+	}
+
+	/**
+	 * Sets the decoded string cache limit of the string pools this parser
+	 * reads, see StringBlock.setCacheLimit(int).
+	 */
+	public void setStringCacheLimit(int limit) {
+		m_stringCacheLimit = limit;
+		if (m_strings != null) {
+			m_strings.setCacheLimit(limit);
+		}
+	}
+
 	/////////////////////////////////// iteration
 
 	public int next() throws XmlPullParserException,IOException {
@@ -585,6 +916,25 @@ class AXmlResourceParser implements XmlResourceParser {
 		}
 	}
 
+	/**
+	 * Skips the element the parser is on, including all of its children, and
+	 * leaves the parser on its END_TAG.
+	 * Nested chunks are skipped by their size, only depth and namespaces are
+	 * tracked, attributes of skipped elements are never read.
+	 */
+	public int skipSubtree() throws XmlPullParserException,IOException {
+		if (m_event != START_TAG) {
+			throw new XmlPullParserException("Parser must be on START_TAG to skip a subtree.", this, null);
+		}
+		try {
+			doSkipSubtree();
+			return m_event;
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
 	public void require(int type, String namespace, String name) throws XmlPullParserException,IOException {
 		if (type != getEventType() ||
 			(namespace != null && !namespace.equals(getNamespace())) ||
@@ -665,7 +1015,7 @@ class AXmlResourceParser implements XmlResourceParser {
 			return null;
 		}
 		int offset=getAttributeOffset(m_classAttribute);
-		int value=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+		int value=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 		return m_strings.getString(value);
 	}
 
@@ -674,7 +1024,7 @@ class AXmlResourceParser implements XmlResourceParser {
 			return null;
 		}
 		int offset=getAttributeOffset(m_idAttribute);
-		int value=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+		int value=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 		return m_strings.getString(value);
 	}
 
@@ -683,11 +1033,11 @@ class AXmlResourceParser implements XmlResourceParser {
 			return defaultValue;
 		}
 		int offset=getAttributeOffset(m_idAttribute);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType != TypedValue.TYPE_REFERENCE) {
 			return defaultValue;
 		}
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public int getStyleAttribute() {
@@ -695,19 +1045,19 @@ class AXmlResourceParser implements XmlResourceParser {
 			return 0;
 		}
 		int offset=getAttributeOffset(m_styleAttribute);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public int getAttributeCount() {
 		if (m_event != START_TAG) {
 			return -1;
 		}
-		return m_attributes.length / ATTRIBUTE_LENGHT;
+		return m_attributeCount;
 	}
 
 	public String getAttributeNamespace(int index) {
 		int offset=getAttributeOffset(index);
-		int namespace=m_attributes[offset + ATTRIBUTE_IX_NAMESPACE_URI];
+		int namespace=getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
 		if (namespace == -1) {
 			return "";
 		}
@@ -716,7 +1066,7 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public String getAttributePrefix(int index) {
 		int offset=getAttributeOffset(index);
-		int uri=m_attributes[offset + ATTRIBUTE_IX_NAMESPACE_URI];
+		int uri=getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
 		int prefix=m_namespaces.findPrefix(uri);
 		if (prefix == -1) {
 			return "";
@@ -726,7 +1076,7 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public String getAttributeName(int index) {
 		int offset=getAttributeOffset(index);
-		int name=m_attributes[offset + ATTRIBUTE_IX_NAME];
+		int name=getAttribute(offset + ATTRIBUTE_IX_NAME);
 		if (name == -1) {
 			return "";
 		}
@@ -735,9 +1085,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeNameResource(int index) {
 		int offset=getAttributeOffset(index);
-		int name=m_attributes[offset + ATTRIBUTE_IX_NAME];
+		int name=getAttribute(offset + ATTRIBUTE_IX_NAME);
 		if (m_resourceIDs == null ||
-			name < 0 || name >= m_resourceIDs.length) {
+			name < 0 || name >= m_resourceIDCount) {
 			return 0;
 		}
 		return m_resourceIDs[name];
@@ -745,22 +1095,22 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeValueType(int index) {
 		int offset=getAttributeOffset(index);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 	}
 
 	public int getAttributeValueData(int index) {
 		int offset=getAttributeOffset(index);
-		return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 	}
 
 	public String getAttributeValue(int index) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_STRING) {
-			int valueString=m_attributes[offset + ATTRIBUTE_IX_VALUE_STRING];
+			int valueString=getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
 			return m_strings.getString(valueString);
 		}
-		int valueData=m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+		int valueData=getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		return "";//TypedValue.coerceToString(valueType,valueData);
 	}
 
@@ -770,9 +1120,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public float getAttributeFloatValue(int index, float defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_FLOAT) {
-			int valueData=m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			int valueData=getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 			return Float.intBitsToFloat(valueData);
 		}
 		return defaultValue;
@@ -780,10 +1130,10 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeIntValue(int index, int defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType >= TypedValue.TYPE_FIRST_INT &&
 			valueType <= TypedValue.TYPE_LAST_INT) {
-			return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		}
 		return defaultValue;
 	}
@@ -794,9 +1144,9 @@ class AXmlResourceParser implements XmlResourceParser {
 
 	public int getAttributeResourceValue(int index, int defaultValue) {
 		int offset=getAttributeOffset(index);
-		int valueType=m_attributes[offset + ATTRIBUTE_IX_VALUE_TYPE];
+		int valueType=getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
 		if (valueType == TypedValue.TYPE_REFERENCE) {
-			return m_attributes[offset + ATTRIBUTE_IX_VALUE_DATA];
+			return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
 		}
 		return defaultValue;
 	}
@@ -867,6 +1217,102 @@ class AXmlResourceParser implements XmlResourceParser {
 		return false;
 	}
 
+	/////////////////////////////////// string pool indices
+
+	/*
+	 * Cursor over the raw records, everything is returned as a string pool
+	 * index (see getStringPool()) or a raw word, so no strings are built.
+	 * Indices are -1 where the plain getters would return null or "".
+	 */
+
+	/**
+	 * Returns the string pool of the current document,
+	 * null before the first call to next().
+	 */
+	public StringBlock getStringPool() {
+		return getStrings();
+	}
+
+	public int getNameIndex() {
+		if (m_event != START_TAG && m_event != END_TAG) {
+			return -1;
+		}
+		return m_name;
+	}
+
+	public int getTextIndex() {
+		if (m_event != TEXT) {
+			return -1;
+		}
+		return m_name;
+	}
+
+	public int getNamespaceIndex() {
+		return m_namespaceUri;
+	}
+
+	public int getPrefixIndex() {
+		return m_namespaces.findPrefix(m_namespaceUri);
+	}
+
+	public int getNamespacePrefixIndex(int pos) {
+		return m_namespaces.getPrefix(pos);
+	}
+
+	public int getNamespaceUriIndex(int pos) {
+		return m_namespaces.getUri(pos);
+	}
+
+	public int getAttributeNamespaceIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_NAMESPACE_URI);
+	}
+
+	public int getAttributePrefixIndex(int index) {
+		return m_namespaces.findPrefix(getAttributeNamespaceIndex(index));
+	}
+
+	public int getAttributeNameIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_NAME);
+	}
+
+	/**
+	 * Returns index of the raw string value, set for TYPE_STRING values
+	 * and -1 for most others.
+	 */
+	public int getAttributeValueStringIndex(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_STRING);
+	}
+
+	public int getAttributeRawType(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_TYPE);
+	}
+
+	public int getAttributeRawData(int index) {
+		int offset=getAttributeOffset(index);
+		return getAttribute(offset + ATTRIBUTE_IX_VALUE_DATA);
+	}
+
+	/**
+	 * Returns position of the attribute with given name and namespace
+	 * indices, or -1. A namespace of -1 matches any namespace.
+	 */
+	public int findAttributeIndex(int namespace, int name) {
+		if (m_event != START_TAG || name == -1) {
+			return -1;
+		}
+		for (int o=0;o != m_attributeCount * ATTRIBUTE_LENGHT;o += ATTRIBUTE_LENGHT) {
+			if (name == getAttribute(o + ATTRIBUTE_IX_NAME) &&
+				(namespace == -1 || namespace == getAttribute(o + ATTRIBUTE_IX_NAMESPACE_URI))) {
+				return o / ATTRIBUTE_LENGHT;
+			}
+		}
+		return -1;
+	}
+
 	/////////////////////////////////// dummies
 
 	public void setInput(InputStream stream, String inputEncoding) throws XmlPullParserException {
@@ -1181,6 +1627,17 @@ class AXmlResourceParser implements XmlResourceParser {
 //	}
 
 	final StringBlock getStrings() {
+		if (m_strings != null) {
+			m_stringsTaken = true;
+		}
+		return m_strings;
+	}
+
+	/**
+	 * Same as getStrings() but leaves the pool to be reused by reset(),
+	 * for callers that drop the block before the next document.
+	 */
+	final StringBlock peekStrings() {
 		return m_strings;
 	}
 
@@ -1191,12 +1648,27 @@ class AXmlResourceParser implements XmlResourceParser {
 			throw new IndexOutOfBoundsException("Current event is not START_TAG.");
 		}
 		int offset=index * 5;
-		if (offset >= m_attributes.length) {
+		if (offset >= m_attributeCount * ATTRIBUTE_LENGHT) {
 			throw new IndexOutOfBoundsException("Invalid attribute index (" + index + ").");
 		}
 		return offset;
 	}
 
+	/**
+	 * Returns word at offset in the attribute array, value types already
+	 * shifted down. In lazy mode the word is read from the reader's buffer.
+	 */
+	private final int getAttribute(int offset) {
+		if (m_attributesPosition == -1) {
+			return m_attributes[offset];
+		}
+		int value=m_reader.getBuffer().getInt(m_attributesPosition + offset * 4);
+		if ((offset % ATTRIBUTE_LENGHT) == ATTRIBUTE_IX_VALUE_TYPE) {
+			value >>>= 24;
+		}
+		return value;
+	}
+
 	private final int findAttribute(String namespace, String attribute) {
 		if (m_strings == null || attribute == null) {
 			return -1;
@@ -1208,13 +1680,7 @@ class AXmlResourceParser implements XmlResourceParser {
 		int uri=(namespace != null) ?
 			m_strings.find(namespace):
 			-1;
-		for (int o=0;o != m_attributes.length;++o) {
-			if (name == m_attributes[o + ATTRIBUTE_IX_NAME] &&
-				(uri == -1 || uri == m_attributes[o + ATTRIBUTE_IX_NAMESPACE_URI])) {
-				return o / ATTRIBUTE_LENGHT;
-			}
-		}
-		return -1;
+		return findAttributeIndex(uri, name);
 	}
 
 	private final void resetEventInfo() {
@@ -1222,7 +1688,8 @@ class AXmlResourceParser implements XmlResourceParser {
 		m_lineNumber = -1;
 		m_name = -1;
 		m_namespaceUri = -1;
-		m_attributes = null;
+		m_attributeCount = 0;
+		m_attributesPosition = -1;
 		m_idAttribute = -1;
 		m_classAttribute = -1;
 		m_styleAttribute = -1;
@@ -1233,7 +1700,11 @@ class AXmlResourceParser implements XmlResourceParser {
 		if (m_strings == null) {
 			ChunkUtil.readCheckType(m_reader, CHUNK_AXML_FILE);
 			/*chunkSize*/m_reader.skipInt();
-			m_strings = StringBlock.read(m_reader);
+			m_strings = StringBlock.read(m_reader, m_recycledStrings);
+			m_recycledStrings = null;
+			if (m_strings.getCacheLimit() != m_stringCacheLimit) {
+				m_strings.setCacheLimit(m_stringCacheLimit);
+			}
 			m_namespaces.increaseDepth();
 			m_operational = true;
 		}
@@ -1272,7 +1743,11 @@ class AXmlResourceParser implements XmlResourceParser {
 				if (chunkSize < 8 || (chunkSize % 4) != 0) {
 					throw new IOException("Invalid resource ids size (" + chunkSize + ").");
 				}
-				m_resourceIDs = m_reader.readIntArray(chunkSize / 4 - 2);
+				m_resourceIDCount = chunkSize / 4 - 2;
+				if (m_resourceIDs == null || m_resourceIDs.length < m_resourceIDCount) {
+					m_resourceIDs = new int[m_resourceIDCount];
+				}
+				m_reader.readIntArray(m_resourceIDs, 0, m_resourceIDCount);
 				continue;
 			}
 
@@ -1317,10 +1792,20 @@ class AXmlResourceParser implements XmlResourceParser {
 				m_classAttribute = m_reader.readInt();
 				m_styleAttribute = (m_classAttribute >>> 16) - 1;
 				m_classAttribute = (m_classAttribute & 0xFFFF) - 1;
-				m_attributes = m_reader.readIntArray(attributeCount * ATTRIBUTE_LENGHT);
-				for (int i=ATTRIBUTE_IX_VALUE_TYPE;i < m_attributes.length;) {
-					m_attributes[i] = (m_attributes[i] >>> 24);
-					i += ATTRIBUTE_LENGHT;
+				m_attributeCount = attributeCount;
+				if (m_lazyAttributes && m_reader.getBuffer() != null) {
+					m_attributesPosition = m_reader.getPosition();
+					m_reader.skip(attributeCount * ATTRIBUTE_LENGHT * 4);
+				} else {
+					int length=attributeCount * ATTRIBUTE_LENGHT;
+					if (m_attributes == null || m_attributes.length < length) {
+						m_attributes = new int[Math.max(length, ATTRIBUTE_LENGHT * 8)];
+					}
+					m_reader.readIntArray(m_attributes, 0, length);
+					for (int i=ATTRIBUTE_IX_VALUE_TYPE;i < length;) {
+						m_attributes[i] = (m_attributes[i] >>> 24);
+						i += ATTRIBUTE_LENGHT;
+					}
 				}
 				m_namespaces.increaseDepth();
 				m_event = START_TAG;
@@ -1345,6 +1830,48 @@ class AXmlResourceParser implements XmlResourceParser {
 		}
 	}
 
+	private final void doSkipSubtree() throws IOException {
+		int level=1;
+		while (true) {
+			if (m_decreaseDepth) {
+				m_decreaseDepth = false;
+				m_namespaces.decreaseDepth();
+			}
+			int chunkType=m_reader.readInt();
+			int chunkSize=m_reader.readInt();
+			if (chunkSize < 8) {
+				throw new IOException("Invalid chunk size (" + chunkSize + ").");
+			}
+			if (chunkType == CHUNK_XML_START_TAG) {
+				level += 1;
+				m_namespaces.increaseDepth();
+			} else if (chunkType == CHUNK_XML_END_TAG) {
+				level -= 1;
+				m_decreaseDepth = true;
+				if (level == 0) {
+					resetEventInfo();
+					m_lineNumber = m_reader.readInt();
+					/*0xFFFFFFFF*/m_reader.skipInt();
+					m_namespaceUri = m_reader.readInt();
+					m_name = m_reader.readInt();
+					m_reader.skip(chunkSize - 24);
+					m_event = END_TAG;
+					return;
+				}
+			} else if (chunkType == CHUNK_XML_START_NAMESPACE) {
+				/*lineNumber*/m_reader.skipInt();
+				/*0xFFFFFFFF*/m_reader.skipInt();
+				int prefix=m_reader.readInt();
+				int uri=m_reader.readInt();
+				m_namespaces.push(prefix, uri);
+				chunkSize -= 16;
+			} else if (chunkType == CHUNK_XML_END_NAMESPACE) {
+				m_namespaces.pop();
+			}
+			m_reader.skip(chunkSize - 8);
+		}
+	}
+
 	/////////////////////////////////// data
 
 	/*
@@ -1356,7 +1883,10 @@ class AXmlResourceParser implements XmlResourceParser {
 	private boolean m_operational=false;
 
 	private StringBlock m_strings;
+	private StringBlock m_recycledStrings;
+	private boolean m_stringsTaken;
 	private int[] m_resourceIDs;
+	private int m_resourceIDCount;
 	private NamespaceStack m_namespaces=new NamespaceStack();
 
 	private boolean m_decreaseDepth;
@@ -1366,6 +1896,10 @@ class AXmlResourceParser implements XmlResourceParser {
 	private int m_name;
 	private int m_namespaceUri;
 	private int[] m_attributes;
+	private int m_attributeCount;
+	private int m_attributesPosition;
+	private boolean m_lazyAttributes;
+	private int m_stringCacheLimit=AxmlUtil.Config.stringCacheLimit;
 	private int m_idAttribute;
 	private int m_classAttribute;
 	private int m_styleAttribute;
@@ -0,0 +1,190 @@
+package axml.xml;
+
+import org.xmlpull.v1.*;
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+import android.graphics.*;
+
+/**
+ * Checks ValueChunk.parse() against the regular expressions it replaced,
+ * on the edge cases below and on random values built from them.
+ * Type and data (or the string of string values) must be the same, and
+ * a value one side fails on must fail the same way on the other.
+ * Prints every mismatch and exits with status 1 if there was any.
+ *
+ * Compile it together with the library sources and run
+ * java axml.xml.ValueChunkCheck [count [seed]]
+ */
+public class ValueChunkCheck {
+
+	public static void main(String[] args) throws XmlPullParserException, IOException {
+		int count=(args.length > 0) ?Integer.parseInt(args[0]): 1000000;
+		long seed=(args.length > 1) ?Long.parseLong(args[1]): 42;
+		ValueChunkCheck check=new ValueChunkCheck();
+		for (String value:EDGE_CASES) {
+			check.compare(value);
+		}
+		Random random=new Random(seed);
+		StringBuilder value=new StringBuilder();
+		for (int i=0;i != count;++i) {
+			value.setLength(0);
+			if (random.nextInt(3) == 0) {
+				value.append(EDGE_CASES[random.nextInt(EDGE_CASES.length)]);
+			}
+			for (int length=random.nextInt(8);length != 0;--length) {
+				value.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+			}
+			check.compare(value.toString());
+		}
+		System.out.println(check.m_cases + " values, " + check.m_mismatches + " mismatches");
+		if (check.m_mismatches != 0) {
+			System.exit(1);
+		}
+	}
+
+	///////////////////////////////////////////// implementation
+
+	private ValueChunkCheck() throws XmlPullParserException, IOException {
+		XmlPullParserFactory f=XmlPullParserFactory.newInstance();
+		f.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+		XmlPullParser p=f.newPullParser();
+		p.setInput(new StringReader("<a/>"));
+		p.next();
+		m_tag = new StartTagChunk(m_root, p);
+	}
+
+	private void compare(String raw) {
+		m_cases += 1;
+		String expected=expected(raw);
+		String actual=actual(raw);
+		if (!expected.equals(actual)) {
+			m_mismatches += 1;
+			System.out.println("[" + escape(raw) + "] regex: " + escape(expected) + ", parse(): " + escape(actual));
+		}
+	}
+
+	private String actual(String raw) {
+		AttrChunk attr=new AttrChunk(m_tag);
+		attr.rawValue = raw;
+		try {
+			attr.value.parse();
+		} catch (RuntimeException e) {
+			return "throws " + e.getClass().getName();
+		}
+		return outcome(attr.value.type, attr.value.data, attr.value.getString());
+	}
+
+	/**
+	 * What ValueChunk.evaluate() gave before the lexer, group numbers of
+	 * types are the VALUE_ constants.
+	 */
+	private String expected(String raw) {
+		try {
+			Matcher m=EXPLICIT_TYPE.matcher(raw);
+			if (m.find()) {
+				String t=m.group(1);
+				if (t == null || t.isEmpty() || t.equals("string") || t.equals("str")) {
+					return outcome(ValueType.STRING, -1, m.group(2));
+				}
+				throw new RuntimeException();
+			}
+			m = TYPES.matcher(raw);
+			if (!m.find()) {
+				return outcome(ValueType.STRING, -1, raw);
+			}
+			int group=1;
+			while (m.group(group) == null || m.group(group).isEmpty()) {
+				group += 1;
+			}
+			String val=m.group(group);
+			ValueChunk value=new AttrChunk(m_tag).value;
+			switch (group) {
+				case ValueChunk.VALUE_NULL:
+					return outcome(ValueType.NULL, 0, null);
+				case ValueChunk.VALUE_REFERENCE:
+					return outcome(ValueType.REFERENCE, value.getReferenceResolver().resolve(value, val), null);
+				case ValueChunk.VALUE_BOOLEAN:
+					return outcome(ValueType.INT_BOOLEAN, "true".equalsIgnoreCase(val) ?1: 0, null);
+				case ValueChunk.VALUE_INT:
+					return outcome(ValueType.INT_DEC, Integer.parseInt(val), null);
+				case ValueChunk.VALUE_HEX:
+					return outcome(ValueType.INT_HEX, Integer.parseInt(val.substring(2), 16), null);
+				case ValueChunk.VALUE_FLOAT:
+					return outcome(ValueType.FLOAT, Float.floatToIntBits(Float.parseFloat(val)), null);
+				case ValueChunk.VALUE_DIMENSION:
+					return outcome(ValueType.DIMENSION, value.evalcomplex(val), null);
+				case ValueChunk.VALUE_FRACTION:
+					return outcome(ValueType.FRACTION, value.evalcomplex(val), null);
+				case ValueChunk.VALUE_COLOR:
+					return outcome(ValueType.INT_COLOR_ARGB8, Color.parseColor(val), null);
+				default:
+					return outcome(ValueType.INT_DEC, "wrap_content".equalsIgnoreCase(val) ?-2: -1, null);
+			}
+		} catch (RuntimeException e) {
+			return "throws " + e.getClass().getName();
+		}
+	}
+
+	private static String outcome(byte type, int data, String string) {
+		if (type == ValueType.STRING) {
+			return "string \"" + string + "\"";
+		}
+		return "type " + type + " data " + data;
+	}
+
+	private static String escape(String s) {
+		return s.replace("\r", "\\r").replace("\n", "\\n").replace("\u2028", "\\u2028");
+	}
+
+	/*
+	 * Resolves a reference to the hash of its text, so both sides are
+	 * compared on the text they resolve without looking up resources.
+	 */
+	private final XmlChunk m_root=new XmlChunk() {
+		@Override
+		public ReferenceResolver getReferenceResolver() {
+			return new ReferenceResolver() {
+				public int resolve(ValueChunk value, String ref) {
+					return ref.hashCode();
+				}
+			};
+		}
+	};
+	private final StartTagChunk m_tag;
+	private int m_cases;
+	private int m_mismatches;
+
+	private static final Pattern EXPLICIT_TYPE=Pattern.compile("!(?:(\\w+)!)?(.*)");
+	private static final Pattern TYPES=Pattern.compile("^(?:" +
+		"(@null)" +
+		"|(@\\+?(?:\\w+:)?\\w+/\\w+|@(?:\\w+:)?[0-9a-zA-Z]+)" +
+		"|(true|false)" +
+		"|([-+]?\\d+)" +
+		"|(0x[0-9a-zA-Z]+)" +
+		"|([-+]?\\d+(?:\\.\\d+)?)" +
+		"|([-+]?\\d+(?:\\.\\d+)?(?:dp|dip|in|px|sp|pt|mm))" +
+		"|([-+]?\\d+(?:\\.\\d+)?(?:%))" +
+		"|(\\#(?:[0-9a-fA-F]{3}|[0-9a-fA-F]{4}|[0-9a-fA-F]{6}|[0-9a-fA-F]{8}))" +
+		"|(match_parent|wrap_content|fill_parent)" +
+		")$");
+
+	private static final String[] EDGE_CASES={
+		"", "hello", "@null", "@string/app_name", "@android:string/ok", "@+id/foo",
+		"@7F0A0001", "@android:7F0A0001", "@a_b", "@a:b_c", "@a:", "@+a:b/c", "@+abc", "@a:b:c",
+		"true", "false", "True", "12", "-3", "+4", "99999999999",
+		// Hex is tried before int and float, "0x" alone is a string.
+		"0", "0x1F", "0xZZ", "0x", "00x1", "0x7FFFFFFF", "0xFFFFFFFF",
+		"1.5", "-1.25", "1.", ".5", "1e5", "1.dp",
+		"12dp", "12.5dip", "3in", "4px", "5sp", "6pt", "7mm", "50%", "1.5%",
+		"#fff", "#ffff", "#ff00aa", "#ff00aa11", "#fffff", "#", "#ggg",
+		"match_parent", "wrap_content", "fill_parent",
+		// One trailing line terminator is allowed after a typed value, not two.
+		"true\n", "12\r\n", "12\r", "#fff\u2028", "@null\u0085", "1.5\n\n", "12\n3", "\n",
+		// "!" is found anywhere and its value stops at the first line terminator.
+		"a!b", "!x", "!str!x", "!string!", "!!x", "!int!5", "x!y!z\nq", "12!", "!a_1!b\rc",
+		"\u0663", "12\u0663", "caf\u00e9"
+	};
+
+	private static final String ALPHABET="0123456789+-.x#@:/_!%abcdefABCDEFpinmstrulxdwzZ\n\r\u2028\u00e9\u0663";
+}